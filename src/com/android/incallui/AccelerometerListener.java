@@ -22,6 +22,8 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
@@ -29,6 +31,13 @@ import android.util.Log;
  * This class is used to listen to the accelerometer to monitor the
  * orientation of the phone. The client of this class is notified when
  * the orientation changes between horizontal and vertical.
+ *
+ * Sensor events are batched by the sensor hub where it supports it, and are
+ * filtered on a background thread: a low-pass filter smooths out the shakes
+ * of a hand held phone, and the tilt has to go past the vertical angle by a
+ * margin before the orientation flips, so it doesn't flap around it. The
+ * orientation is reported on the main thread once it is stable for a debounce
+ * delay.
  */
 public final class AccelerometerListener {
     private static final String TAG = "AccelerometerListener";
@@ -37,6 +46,10 @@ public final class AccelerometerListener {
 
     private SensorManager mSensorManager;
     private Sensor mSensor;
+    private HandlerThread mSensorThread;
+    // Whether the listener is enabled. Samples still being handled on the sensor thread after
+    // it is disabled are dropped.
+    private boolean mEnabled;
 
     // mOrientation is the orientation value most recently reported to the client.
     private int mOrientation;
@@ -46,6 +59,17 @@ public final class AccelerometerListener {
     // mOrientation.
     private int mPendingOrientation;
 
+    // The sensor values after the low-pass filter, and the time of the last of them.
+    // Only used on the sensor thread.
+    private float mFilteredX;
+    private float mFilteredY;
+    private float mFilteredZ;
+    private long mLastSampleTimeNanos;
+
+    // mSampleOrientation is the orientation of the last filtered sample, kept while the tilt
+    // is within the hysteresis band. Only used on the sensor thread.
+    private int mSampleOrientation;
+
     private OrientationListener mListener;
 
     // Device orientation
@@ -58,6 +82,27 @@ public final class AccelerometerListener {
     private static final int VERTICAL_DEBOUNCE = 100;
     private static final int HORIZONTAL_DEBOUNCE = 500;
     private static final double VERTICAL_ANGLE = 50.0;
+    // The tilt has to go this far past VERTICAL_ANGLE to flip the orientation.
+    private static final double HYSTERESIS_ANGLE = 5.0;
+
+    // Squared tangents of the angles, so a sample is classified without a square root or an
+    // arc tangent.
+    private static final double VERTICAL_TAN2 =
+            square(Math.tan(Math.toRadians(VERTICAL_ANGLE)));
+    private static final double ENTER_VERTICAL_TAN2 =
+            square(Math.tan(Math.toRadians(VERTICAL_ANGLE + HYSTERESIS_ANGLE)));
+    private static final double ENTER_HORIZONTAL_TAN2 =
+            square(Math.tan(Math.toRadians(VERTICAL_ANGLE - HYSTERESIS_ANGLE)));
+
+    // Time constant of the low-pass filter.
+    private static final float FILTER_TIME_CONSTANT_MS = 200.0f;
+    // Gaps between samples longer than this restart the filter.
+    private static final long MAX_FILTER_GAP_NANOS = 1000000000L;
+
+    // How long the sensor hub may hold events before delivering them. Kept well below the
+    // time it takes to bring the phone to the ear, which is when the proximity sensor has
+    // to take over.
+    private static final int MAX_REPORT_LATENCY_US = 300000;
 
     public interface OrientationListener {
         public void orientationChanged(int orientation);
@@ -72,20 +117,35 @@ public final class AccelerometerListener {
     public void enable(boolean enable) {
         if (DEBUG) Log.d(TAG, "enable(" + enable + ")");
         synchronized (this) {
+            mEnabled = enable;
             if (enable) {
                 mOrientation = ORIENTATION_UNKNOWN;
                 mPendingOrientation = ORIENTATION_UNKNOWN;
+                mSampleOrientation = ORIENTATION_UNKNOWN;
+                mLastSampleTimeNanos = 0;
+                if (mSensorThread == null) {
+                    mSensorThread = new HandlerThread(TAG);
+                    mSensorThread.start();
+                }
                 mSensorManager.registerListener(mSensorListener, mSensor,
-                        SensorManager.SENSOR_DELAY_NORMAL);
+                        SensorManager.SENSOR_DELAY_NORMAL, MAX_REPORT_LATENCY_US,
+                        new Handler(mSensorThread.getLooper()));
             } else {
                 mSensorManager.unregisterListener(mSensorListener);
                 mHandler.removeMessages(ORIENTATION_CHANGED);
+                if (mSensorThread != null) {
+                    mSensorThread.quit();
+                    mSensorThread = null;
+                }
             }
         }
     }
 
     private void setOrientation(int orientation) {
         synchronized (this) {
+            if (!mEnabled) {
+                return;
+            }
             if (mPendingOrientation == orientation) {
                 // Pending orientation has not changed, so do nothing.
                 return;
@@ -112,27 +172,64 @@ public final class AccelerometerListener {
         }
     }
 
-    private void onSensorEvent(double x, double y, double z) {
+    private void onSensorEvent(long timestampNanos, float x, float y, float z) {
         if (VDEBUG) Log.d(TAG, "onSensorEvent(" + x + ", " + y + ", " + z + ")");
 
         // If some values are exactly zero, then likely the sensor is not powered up yet.
         // ignore these events to avoid false horizontal positives.
-        if (x == 0.0 || y == 0.0 || z == 0.0) return;
-
-        // magnitude of the acceleration vector projected onto XY plane
-        final double xy = Math.sqrt(x*x + y*y);
-        // compute the vertical angle
-        double angle = Math.atan2(xy, z);
-        // convert to degrees
-        angle = angle * 180.0 / Math.PI;
-        final int orientation = (angle >  VERTICAL_ANGLE ? ORIENTATION_VERTICAL : ORIENTATION_HORIZONTAL);
-        if (VDEBUG) Log.d(TAG, "angle: " + angle + " orientation: " + orientation);
-        setOrientation(orientation);
+        if (x == 0.0f || y == 0.0f || z == 0.0f) return;
+
+        final long gapNanos = timestampNanos - mLastSampleTimeNanos;
+        if (mLastSampleTimeNanos == 0 || gapNanos <= 0 || gapNanos > MAX_FILTER_GAP_NANOS) {
+            mFilteredX = x;
+            mFilteredY = y;
+            mFilteredZ = z;
+        } else {
+            final float gapMs = gapNanos / 1000000.0f;
+            final float alpha = gapMs / (FILTER_TIME_CONSTANT_MS + gapMs);
+            mFilteredX += alpha * (x - mFilteredX);
+            mFilteredY += alpha * (y - mFilteredY);
+            mFilteredZ += alpha * (z - mFilteredZ);
+        }
+        mLastSampleTimeNanos = timestampNanos;
+
+        mSampleOrientation = getOrientation(mFilteredX, mFilteredY, mFilteredZ);
+        if (VDEBUG) Log.d(TAG, "orientation: " + mSampleOrientation);
+        setOrientation(mSampleOrientation);
+    }
+
+    /**
+     * Compares the vertical angle of the acceleration vector, atan2(sqrt(x*x + y*y), z),
+     * with the thresholds through the squares of their tangents.
+     */
+    private int getOrientation(float x, float y, float z) {
+        if (z <= 0.0f) {
+            // Tilted by 90 degrees or more.
+            return ORIENTATION_VERTICAL;
+        }
+        // squared magnitude of the acceleration vector projected onto XY plane
+        final double xy2 = x * x + y * y;
+        final double z2 = z * z;
+        if (xy2 > z2 * ENTER_VERTICAL_TAN2) {
+            return ORIENTATION_VERTICAL;
+        }
+        if (xy2 < z2 * ENTER_HORIZONTAL_TAN2) {
+            return ORIENTATION_HORIZONTAL;
+        }
+        if (mSampleOrientation != ORIENTATION_UNKNOWN) {
+            // Within the hysteresis band, keep the orientation.
+            return mSampleOrientation;
+        }
+        return (xy2 > z2 * VERTICAL_TAN2 ? ORIENTATION_VERTICAL : ORIENTATION_HORIZONTAL);
+    }
+
+    private static double square(double value) {
+        return value * value;
     }
 
     SensorEventListener mSensorListener = new SensorEventListener() {
         public void onSensorChanged(SensorEvent event) {
-            onSensorEvent(event.values[0], event.values[1], event.values[2]);
+            onSensorEvent(event.timestamp, event.values[0], event.values[1], event.values[2]);
         }
 
         public void onAccuracyChanged(Sensor sensor, int accuracy) {
@@ -140,11 +237,11 @@ public final class AccelerometerListener {
         }
     };
 
-    Handler mHandler = new Handler() {
+    Handler mHandler = new Handler(Looper.getMainLooper()) {
         public void handleMessage(Message msg) {
             switch (msg.what) {
             case ORIENTATION_CHANGED:
-                synchronized (this) {
+                synchronized (AccelerometerListener.this) {
                     mOrientation = mPendingOrientation;
                     if (DEBUG) {
                         Log.d(TAG, "orientation: " +
@@ -60,8 +60,9 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
             }
         }
 
-        // Listen for incoming calls.
-        calls.addListener(this);
+        // Listen for incoming calls. The answer UI has to track the ringing call without waiting
+        // for coalesced updates.
+        calls.addListener(this, true /* synchronous */);
         CallList.getInstance().addActiveSubChangeListener(this);
     }
 
@@ -144,6 +145,8 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
     }
 
     private void processIncomingCall(Call call) {
+        final CallLatencyTracer tracer = CallLatencyTracer.getInstance();
+        tracer.begin(call.getId(), CallLatencyTracer.SPAN_ANSWER_UI);
         int subId = call.getSubId();
         int phoneId = CallList.getInstance().getPhoneId(subId);
         mCallId[phoneId] = call.getId();
@@ -156,6 +159,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         final List<String> textMsgs = CallList.getInstance().getTextResponses(call.getId());
         getUi().showAnswerUi(true);
         configureAnswerTargetsForSms(call, textMsgs);
+        tracer.end(call.getId(), CallLatencyTracer.SPAN_ANSWER_UI);
     }
 
     private void processVideoUpgradeRequestCall(Call call) {
@@ -265,6 +269,9 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         if (mCallId == null || phoneId == -1) {
             return;
         }
+        if (VideoProfile.VideoState.isVideo(videoState)) {
+            VideoSurfacePool.getInstance().onVideoCallAnswered();
+        }
 
         /**
          * To test call deflection this property has to be set with the
@@ -175,16 +175,16 @@ public final class Call {
             new android.telecom.Call.Listener() {
                 @Override
                 public void onStateChanged(android.telecom.Call call, int newState) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call + " newState="
-                            + newState);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call, " newState=",
+                            newState);
                     update();
                 }
 
                 @Override
                 public void onParentChanged(android.telecom.Call call,
                         android.telecom.Call newParent) {
-                    Log.d(this, "TelecommCallListener onParentChanged call=" + call + " newParent="
-                            + newParent);
+                    Log.d(this, "TelecommCallListener onParentChanged call=", call, " newParent=",
+                            newParent);
                     update();
                 }
 
@@ -197,39 +197,42 @@ public final class Call {
                 @Override
                 public void onDetailsChanged(android.telecom.Call call,
                         android.telecom.Call.Details details) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call + " details="
-                            + details);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call, " details=",
+                            details);
                     update();
                 }
 
                 @Override
                 public void onCannedTextResponsesLoaded(android.telecom.Call call,
                         List<String> cannedTextResponses) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call
-                            + " cannedTextResponses=" + cannedTextResponses);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call,
+                            " cannedTextResponses=", cannedTextResponses);
                     update();
                 }
 
                 @Override
                 public void onPostDialWait(android.telecom.Call call,
                         String remainingPostDialSequence) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call
-                            + " remainingPostDialSequence=" + remainingPostDialSequence);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call,
+                            " remainingPostDialSequence=", remainingPostDialSequence);
                     update();
                 }
 
                 @Override
                 public void onVideoCallChanged(android.telecom.Call call,
                         VideoCall videoCall) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call + " videoCall="
-                            + videoCall);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call, " videoCall=",
+                            videoCall);
                     update();
                 }
 
                 @Override
                 public void onCallDestroyed(android.telecom.Call call) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call);
                     call.removeListener(mTelecommCallListener);
+                    if (mSessionModificationEngine != null) {
+                        mSessionModificationEngine.release();
+                    }
                 }
 
                 @Override
@@ -249,6 +252,7 @@ public final class Call {
     private int mModifyToVideoState = VideoProfile.VideoState.AUDIO_ONLY;
 
     private InCallVideoCallListener mVideoCallListener;
+    private SessionModificationEngine mSessionModificationEngine;
 
     public Call(android.telecom.Call telecommCall) {
         mTelecommCall = telecommCall;
@@ -280,7 +284,7 @@ public final class Call {
     }
 
     private void updateFromTelecommCall() {
-        Log.d(this, "updateFromTelecommCall: " + mTelecommCall.toString());
+        Log.d(this, "updateFromTelecommCall: ", mTelecommCall);
         setState(translateState(mTelecommCall.getState()));
         setDisconnectCause(mTelecommCall.getDetails().getDisconnectCause());
         mIsActiveSub = mTelecommCall.mIsActiveSub;
@@ -355,6 +359,9 @@ public final class Call {
     }
 
     public void setState(int state) {
+        if (mState != state) {
+            EventJournal.getInstance().record(EventJournal.EVENT_CALL_STATE, mId, mState, state);
+        }
         mState = state;
     }
 
@@ -500,7 +507,7 @@ public final class Call {
      * want to upgrade/downgrade to.
      */
     public void setSessionModificationTo(int videoState) {
-        Log.d(this, "setSessionModificationTo - video state= " + videoState);
+        Log.d(this, "setSessionModificationTo - video state= ", videoState);
         if (videoState == getVideoState()) {
             mSessionModificationState = Call.SessionModificationState.NO_REQUEST;
             Log.w(this,"setSessionModificationTo - Clearing session modification state");
@@ -511,8 +518,10 @@ public final class Call {
             CallList.getInstance().onUpgradeToVideo(this);
         }
 
-        Log.d(this, "setSessionModificationTo - mSessionModificationState="
-            + mSessionModificationState + " video state= " + videoState);
+        Log.d(this, "setSessionModificationTo - mSessionModificationState=",
+                mSessionModificationState, " video state= ", videoState);
+        EventJournal.getInstance().record(EventJournal.EVENT_VIDEO_SESSION, mId,
+                mSessionModificationState, videoState);
         update();
     }
 
@@ -530,8 +539,12 @@ public final class Call {
 
         boolean hasChanged = mSessionModificationState != state;
         mSessionModificationState = state;
-        Log.d(this, "setSessionModificationState" + state + " mSessionModificationState="
-                + mSessionModificationState);
+        if (hasChanged) {
+            EventJournal.getInstance().record(EventJournal.EVENT_VIDEO_SESSION, mId, state,
+                    mModifyToVideoState);
+        }
+        Log.d(this, "setSessionModificationState", state, " mSessionModificationState=",
+                mSessionModificationState);
         if (state != Call.SessionModificationState.WAITING_FOR_RESPONSE) {
             setModifyToVideoState(VideoProfile.VideoState.AUDIO_ONLY);
         }
@@ -563,6 +576,16 @@ public final class Call {
         return mSessionModificationState;
     }
 
+    /**
+     * @return The engine through which the video state of this call is changed.
+     */
+    public SessionModificationEngine getSessionModificationEngine() {
+        if (mSessionModificationEngine == null) {
+            mSessionModificationEngine = new SessionModificationEngine(this);
+        }
+        return mSessionModificationEngine;
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.US,
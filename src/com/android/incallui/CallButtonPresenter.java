@@ -24,6 +24,7 @@ import android.telecom.PhoneCapabilities;
 import android.telecom.VideoProfile;
 
 import com.android.incallui.AudioModeProvider.AudioModeListener;
+import com.android.incallui.CameraCapabilityRegistry.CameraInfo;
 import com.android.incallui.InCallCameraManager.CameraSelectionListener;
 import com.android.incallui.InCallPresenter.CanAddCallListener;
 import com.android.incallui.InCallPresenter.InCallState;
@@ -60,8 +61,10 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
 
         AudioModeProvider.getInstance().addListener(this);
 
-        // register for call state changes last
-        InCallPresenter.getInstance().addListener(this);
+        // register for call state changes last. Subscription changes arrive through
+        // onActiveSubChanged.
+        InCallPresenter.getInstance().addListener(this,
+                CallListSnapshot.CHANGE_ALL & ~CallListSnapshot.CHANGE_ACTIVE_SUBSCRIPTION);
         InCallPresenter.getInstance().addIncomingCallListener(this);
         InCallPresenter.getInstance().addDetailsListener(this);
         CallList.getInstance().addActiveSubChangeListener(this);
@@ -83,13 +86,14 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
     }
 
     @Override
-    public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
+    public void onStateChange(InCallState oldState, InCallState newState,
+            CallListSnapshot snapshot) {
         CallButtonUi ui = getUi();
 
         if (newState == InCallState.OUTGOING) {
-            mCall = callList.getOutgoingCall();
+            mCall = snapshot.getOutgoingCall();
         } else if (newState == InCallState.INCALL) {
-            mCall = callList.getActiveOrBackgroundCall();
+            mCall = snapshot.getActiveOrBackgroundCall();
 
             // When connected to voice mail, automatically shows the dialpad.
             // (On previous releases we showed it when in-call shows up, before waiting for
@@ -130,7 +134,7 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
 
     @Override
     public void onIncomingCall(InCallState oldState, InCallState newState, Call call) {
-        onStateChange(oldState, newState, CallList.getInstance());
+        onStateChange(oldState, newState, InCallPresenter.getInstance().getCallListSnapshot());
     }
 
     @Override
@@ -248,14 +252,9 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
     }
 
     public void changeToVoiceClicked() {
-        VideoCall videoCall = mCall.getVideoCall();
-        if (videoCall == null) {
-            return;
-        }
-
         VideoProfile videoProfile = new VideoProfile(
                 VideoProfile.VideoState.AUDIO_ONLY, VideoProfile.QUALITY_DEFAULT);
-        videoCall.sendSessionModifyRequest(videoProfile);
+        mCall.getSessionModificationEngine().request(videoProfile);
     }
 
     public void showDialpadClicked(boolean checked) {
@@ -272,12 +271,7 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
     }
 
     public void changeToVideoClicked(VideoProfile videoProfile) {
-        VideoCall videoCall = mCall.getVideoCall();
-        if (videoCall == null) {
-            return;
-        }
-
-        videoCall.sendSessionModifyRequest(videoProfile);
+        mCall.getSessionModificationEngine().request(videoProfile);
     }
 
     /**
@@ -294,13 +288,14 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
             return;
         }
 
-        String cameraId = cameraManager.getActiveCameraId();
-        if (cameraId != null) {
+        // Cached, so switching doesn't query the camera service.
+        final CameraInfo camera = cameraManager.getActiveCameraInfo();
+        if (camera != null) {
             final int cameraDir = cameraManager.isUsingFrontFacingCamera()
                     ? Call.VideoSettings.CAMERA_DIRECTION_FRONT_FACING
                     : Call.VideoSettings.CAMERA_DIRECTION_BACK_FACING;
             mCall.getVideoSettings().setCameraDir(cameraDir);
-            videoCall.setCamera(cameraId);
+            videoCall.setCamera(camera.getId());
             videoCall.requestCameraCapabilities();
         }
     }
@@ -321,14 +316,16 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
             videoCall.setCamera(null);
             VideoProfile videoProfile = new VideoProfile(
                     mCall.getVideoState() | VideoProfile.VideoState.PAUSED);
-            videoCall.sendSessionModifyRequest(videoProfile);
+            mCall.getSessionModificationEngine().request(videoProfile,
+                    false /* trackResponse */);
         } else {
             InCallCameraManager cameraManager = InCallPresenter.getInstance().
                     getInCallCameraManager();
             videoCall.setCamera(cameraManager.getActiveCameraId());
             VideoProfile videoProfile = new VideoProfile(
                     mCall.getVideoState() & ~VideoProfile.VideoState.PAUSED);
-            videoCall.sendSessionModifyRequest(videoProfile);
+            mCall.getSessionModificationEngine().request(videoProfile,
+                    false /* trackResponse */);
         }
         getUi().setPauseVideoButton(pause);
     }
@@ -558,7 +555,7 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
         InCallState state = InCallPresenter.getInstance()
                 .getPotentialStateFromCallList(CallList.getInstance());
 
-        onStateChange(null, state, CallList.getInstance());
+        onStateChange(null, state, new CallListSnapshot(CallList.getInstance(), state));
     }
 
     @Override
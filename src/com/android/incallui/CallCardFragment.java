@@ -165,6 +165,21 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                // Only the first frame is measured.
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                // Ignored unless the phone was just created.
+                UiPerformanceMonitor.getInstance().end(
+                        UiPerformanceMonitor.OP_PHONE_CREATED_TO_CALL_CARD);
+                return true;
+            }
+        });
+
         mPulseAnimation =
                 AnimationUtils.loadAnimation(view.getContext(), R.anim.call_status_pulse);
 
@@ -256,6 +271,8 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
      */
     @Override
     public void setCallCardVisible(final boolean visible) {
+        UiPerformanceMonitor.getInstance().begin(UiPerformanceMonitor.OP_CALL_CARD_VISIBILITY);
+
         // When animating the hide/show of the views in a landscape layout, we need to take into
         // account whether we are in a left-to-right locale or a right-to-left locale and adjust
         // the animations accordingly.
@@ -326,6 +343,8 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
                                 if (!visible) {
                                     mPrimaryCallCardContainer.setVisibility(View.GONE);
                                 }
+                                UiPerformanceMonitor.getInstance().end(
+                                        UiPerformanceMonitor.OP_CALL_CARD_VISIBILITY);
                             }
 
                             @Override
@@ -799,6 +818,9 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     }
 
     public void animateForNewOutgoingCall(Point touchPoint) {
+        UiPerformanceMonitor.getInstance().begin(
+                UiPerformanceMonitor.OP_OUTGOING_CALL_ANIMATION);
+
         final ViewGroup parent = (ViewGroup) mPrimaryCallCardContainer.getParent();
         final Point startPoint = touchPoint;
 
@@ -841,6 +863,8 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
                     @Override
                     public void onAnimationEnd(Animator animation) {
                         setViewStatePostAnimation(listener);
+                        UiPerformanceMonitor.getInstance().end(
+                                UiPerformanceMonitor.OP_OUTGOING_CALL_ANIMATION);
                     }
                 });
                 mAnimatorSet.start();
@@ -901,6 +925,15 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
         });
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // The animations these measure won't end once the view is gone.
+        final UiPerformanceMonitor performanceMonitor = UiPerformanceMonitor.getInstance();
+        performanceMonitor.cancel(UiPerformanceMonitor.OP_CALL_CARD_VISIBILITY);
+        performanceMonitor.cancel(UiPerformanceMonitor.OP_OUTGOING_CALL_ANIMATION);
+    }
+
     /**
      * Adds a global layout listener to update the FAB's positioning on the next layout. This allows
      * us to position the FAB after the secondary call info's height has been calculated.
@@ -131,8 +131,10 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             updatePrimaryDisplayInfo();
         }
 
-        // Register for call state changes last
-        InCallPresenter.getInstance().addListener(this);
+        // Register for call state changes last. Subscription changes are reflected through the
+        // primary and secondary calls, so there is no need to listen to them separately.
+        InCallPresenter.getInstance().addListener(this,
+                CallListSnapshot.CHANGE_ALL & ~CallListSnapshot.CHANGE_ACTIVE_SUBSCRIPTION);
         InCallPresenter.getInstance().addIncomingCallListener(this);
         InCallPresenter.getInstance().addDetailsListener(this);
         InCallPresenter.getInstance().addInCallEventListener(this);
@@ -156,35 +158,20 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
     @Override
     public void onIncomingCall(InCallState oldState, InCallState newState, Call call) {
         // same logic should happen as with onStateChange()
-        onStateChange(oldState, newState, CallList.getInstance());
+        onStateChange(oldState, newState, InCallPresenter.getInstance().getCallListSnapshot());
     }
 
     @Override
-    public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
+    public void onStateChange(InCallState oldState, InCallState newState,
+            CallListSnapshot snapshot) {
         Log.d(this, "onStateChange() " + newState);
         final CallCardUi ui = getUi();
         if (ui == null) {
             return;
         }
 
-        Call primary = null;
-        Call secondary = null;
-
-        if (newState == InCallState.INCOMING) {
-            primary = callList.getIncomingCall();
-        } else if (newState == InCallState.PENDING_OUTGOING || newState == InCallState.OUTGOING) {
-            primary = callList.getOutgoingCall();
-            if (primary == null) {
-                primary = callList.getPendingOutgoingCall();
-            }
-
-            // getCallToDisplay doesn't go through outgoing or incoming calls. It will return the
-            // highest priority call to display as the secondary call.
-            secondary = getCallToDisplay(callList, null, true);
-        } else if (newState == InCallState.INCALL) {
-            primary = getCallToDisplay(callList, null, false);
-            secondary = getCallToDisplay(callList, primary, true);
-        }
+        final Call primary = snapshot.getPrimaryCall();
+        final Call secondary = snapshot.getSecondaryCall();
 
         Log.d(this, "Primary call: " + primary);
         Log.d(this, "Secondary call: " + secondary);
@@ -438,48 +425,6 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         }
     }
 
-    /**
-     * Get the highest priority call to display.
-     * Goes through the calls and chooses which to return based on priority of which type of call
-     * to display to the user. Callers can use the "ignore" feature to get the second best call
-     * by passing a previously found primary call as ignore.
-     *
-     * @param ignore A call to ignore if found.
-     */
-    private Call getCallToDisplay(CallList callList, Call ignore, boolean skipDisconnected) {
-
-        // Active calls come second.  An active call always gets precedent.
-        Call retval = callList.getActiveCall();
-        if (retval != null && retval != ignore) {
-            return retval;
-        }
-
-        // Disconnected calls get primary position if there are no active calls
-        // to let user know quickly what call has disconnected. Disconnected
-        // calls are very short lived.
-        if (!skipDisconnected) {
-            retval = callList.getDisconnectingCall();
-            if (retval != null && retval != ignore) {
-                return retval;
-            }
-            retval = callList.getDisconnectedCall();
-            if (retval != null && retval != ignore) {
-                return retval;
-            }
-        }
-
-        // Then we go to background call (calls on hold)
-        retval = callList.getBackgroundCall();
-        if (retval != null && retval != ignore) {
-            return retval;
-        }
-
-        // Lastly, we go to a second background call.
-        retval = callList.getSecondBackgroundCall();
-
-        return retval;
-    }
-
     private void updatePrimaryDisplayInfo() {
         final CallCardUi ui = getUi();
         if (ui == null) {
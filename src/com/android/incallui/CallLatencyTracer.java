@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.Trace;
+import android.text.format.DateFormat;
+
+import com.google.common.collect.Maps;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Traces the stages an incoming call goes through, from {@link CallList#onIncoming} until the
+ * user sees who is calling and can answer.
+ *
+ * Each stage is a span attached to the id of the call, which also shows up as an async systrace
+ * section. Once the call stops ringing, a summary with the duration of every stage is logged
+ * and kept in a bounded log which is printed by {@link InCallServiceImpl}'s dump, so a slow
+ * ring-to-answer path can be attributed to the stage that caused it.
+ *
+ * Calls that aren't incoming are not traced; spans for them are ignored.
+ */
+public class CallLatencyTracer {
+
+    /** From {@link CallList#onIncoming} until the answer UI and the caller's name are shown. */
+    private static final int SPAN_RING_TO_ANSWERABLE = 0;
+    /** {@link InCallPresenter#onIncomingCall}. */
+    public static final int SPAN_PRESENTER = 1;
+    /** Starting or bringing up the UI from {@link InCallPresenter#onIncomingCall}. */
+    public static final int SPAN_START_UI = 2;
+    /** {@link InCallActivity#onCreate}. */
+    public static final int SPAN_ACTIVITY_CREATE = 3;
+    /** Showing the answer UI, in {@link AnswerPresenter}. */
+    public static final int SPAN_ANSWER_UI = 4;
+    /** {@link ContactInfoCache#findInfo}, until the local lookup completes. */
+    public static final int SPAN_CONTACT_LOOKUP = 5;
+    /** {@link CallerInfoAsyncQuery}, from the start of the query until its result. */
+    public static final int SPAN_CALLER_INFO_QUERY = 6;
+    /** Loading the contact photo. */
+    public static final int SPAN_PHOTO_LOAD = 7;
+
+    private static final String[] SPAN_NAMES = {
+        "ringToAnswerable",
+        "presenter",
+        "startUi",
+        "activityCreate",
+        "answerUi",
+        "contactLookup",
+        "callerInfoQuery",
+        "photoLoad",
+    };
+    private static final int SPAN_COUNT = SPAN_NAMES.length;
+
+    /** Systrace section names, built once. */
+    private static final String[] SECTION_NAMES = new String[SPAN_COUNT];
+    static {
+        for (int i = 0; i < SPAN_COUNT; i++) {
+            SECTION_NAMES[i] = "IncomingCall:" + SPAN_NAMES[i];
+        }
+    }
+
+    private static final int MAX_SUMMARIES = 32;
+
+    private static final double NANOS_PER_MILLI = 1000 * 1000.0;
+
+    private static CallLatencyTracer sInstance;
+
+    /**
+     * The spans of one incoming call.
+     */
+    private static class CallTrace {
+        final String callId;
+        final int cookie;
+        final long startTime = System.currentTimeMillis();
+        final long[] spanStart = new long[SPAN_COUNT];
+        final long[] spanEnd = new long[SPAN_COUNT];
+
+        CallTrace(String callId) {
+            this.callId = callId;
+            this.cookie = callId.hashCode();
+        }
+
+        boolean isOpen(int span) {
+            return spanStart[span] != 0 && spanEnd[span] == 0;
+        }
+    }
+
+    private final HashMap<String, CallTrace> mTraces = Maps.newHashMap();
+    private final ArrayDeque<String> mSummaries = new ArrayDeque<String>(MAX_SUMMARIES);
+
+    public static synchronized CallLatencyTracer getInstance() {
+        if (sInstance == null) {
+            sInstance = new CallLatencyTracer();
+        }
+        return sInstance;
+    }
+
+    private CallLatencyTracer() {
+    }
+
+    /**
+     * Starts tracing a new incoming call.
+     */
+    public synchronized void startCall(String callId) {
+        if (callId == null || mTraces.containsKey(callId)) {
+            return;
+        }
+        final CallTrace trace = new CallTrace(callId);
+        mTraces.put(callId, trace);
+        begin(trace, SPAN_RING_TO_ANSWERABLE);
+    }
+
+    /**
+     * Marks the start of a stage for a call. Only the first start of a stage counts.
+     */
+    public synchronized void begin(String callId, int span) {
+        final CallTrace trace = callId != null ? mTraces.get(callId) : null;
+        if (trace != null) {
+            begin(trace, span);
+        }
+    }
+
+    /**
+     * Marks the end of a stage for a call. Only the first end of a started stage counts.
+     */
+    public synchronized void end(String callId, int span) {
+        final CallTrace trace = callId != null ? mTraces.get(callId) : null;
+        if (trace != null) {
+            end(trace, span);
+        }
+    }
+
+    /**
+     * Marks the start of a stage for all the calls being traced, for stages which are not
+     * specific to a call.
+     */
+    public synchronized void beginAll(int span) {
+        for (CallTrace trace : mTraces.values()) {
+            begin(trace, span);
+        }
+    }
+
+    /**
+     * Marks the end of a stage for all the calls being traced.
+     */
+    public synchronized void endAll(int span) {
+        for (CallTrace trace : mTraces.values()) {
+            end(trace, span);
+        }
+    }
+
+    /**
+     * Stops tracing a call, because it is no longer ringing, and records its summary.
+     */
+    public synchronized void finishCall(String callId) {
+        final CallTrace trace = callId != null ? mTraces.remove(callId) : null;
+        if (trace == null) {
+            return;
+        }
+        for (int span = 0; span < SPAN_COUNT; span++) {
+            if (trace.isOpen(span)) {
+                Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, SECTION_NAMES[span], trace.cookie);
+            }
+        }
+
+        final String summary = getSummary(trace);
+        Log.i(this, summary);
+        if (mSummaries.size() == MAX_SUMMARIES) {
+            mSummaries.removeFirst();
+        }
+        mSummaries.addLast(summary);
+    }
+
+    private void begin(CallTrace trace, int span) {
+        if (trace.spanStart[span] != 0) {
+            return;
+        }
+        trace.spanStart[span] = System.nanoTime();
+        Trace.asyncTraceBegin(Trace.TRACE_TAG_APP, SECTION_NAMES[span], trace.cookie);
+    }
+
+    private void end(CallTrace trace, int span) {
+        if (!trace.isOpen(span)) {
+            return;
+        }
+        trace.spanEnd[span] = System.nanoTime();
+        Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, SECTION_NAMES[span], trace.cookie);
+
+        // The call is answerable once the answer UI shows and the caller's name is known.
+        if ((span == SPAN_ANSWER_UI || span == SPAN_CONTACT_LOOKUP)
+                && trace.spanEnd[SPAN_ANSWER_UI] != 0 && trace.spanEnd[SPAN_CONTACT_LOOKUP] != 0) {
+            end(trace, SPAN_RING_TO_ANSWERABLE);
+        }
+    }
+
+    private static String getSummary(CallTrace trace) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(DateFormat.format("MM-dd kk:mm:ss", trace.startTime));
+        sb.append(" call ").append(trace.callId).append(':');
+
+        int slowest = -1;
+        long slowestNanos = 0;
+        for (int span = 0; span < SPAN_COUNT; span++) {
+            if (trace.spanStart[span] == 0) {
+                continue;
+            }
+            sb.append(' ').append(SPAN_NAMES[span]).append('=');
+            if (trace.spanEnd[span] == 0) {
+                // The call stopped ringing first.
+                sb.append("unfinished");
+                continue;
+            }
+            final long nanos = trace.spanEnd[span] - trace.spanStart[span];
+            sb.append(String.format("%.1f", nanos / NANOS_PER_MILLI)).append("ms");
+            if (span != SPAN_RING_TO_ANSWERABLE && nanos > slowestNanos) {
+                slowest = span;
+                slowestNanos = nanos;
+            }
+        }
+        if (slowest != -1) {
+            sb.append(" slowest=").append(SPAN_NAMES[slowest]);
+        }
+        return sb.toString();
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("CallLatencyTracer:");
+        pw.println("  traced calls: " + mTraces.keySet());
+        pw.println("  last " + mSummaries.size() + " incoming calls:");
+        for (String summary : mSummaries) {
+            pw.println("    " + summary);
+        }
+    }
+}
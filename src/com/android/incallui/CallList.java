@@ -27,12 +27,14 @@ import android.telecom.Phone;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.util.SparseArray;
 
 import com.android.internal.telephony.PhoneConstants;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -51,12 +53,20 @@ public class CallList implements InCallPhoneListener {
 
     private static final int EVENT_DISCONNECTED_TIMEOUT = 1;
     private static final int EVENT_NOTIFY_CHANGE = 2;
+    private static final int EVENT_NOTIFY_COALESCED_CHANGE = 3;
 
     private static CallList sInstance = new CallList();
 
     private final HashMap<String, Call> mCallById = new HashMap<>();
     private final HashMap<android.telecom.Call, Call> mCallByTelecommCall = new HashMap<>();
     private final HashMap<String, List<String>> mCallTextReponsesMap = Maps.newHashMap();
+    /**
+     * Index of the calls in {@link #mCallById} by state. Each list is ordered by the time the call
+     * entered that state, so the oldest call in a given state is always at position 0.
+     */
+    private final SparseArray<ArrayList<Call>> mCallsByState = new SparseArray<>();
+    /** The state each call was last indexed under in {@link #mCallsByState}. */
+    private final HashMap<String, Integer> mIndexedStateById = new HashMap<>();
     /**
      * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
      * load factor before resizing, 1 means we only expect a single thread to
@@ -64,6 +74,9 @@ public class CallList implements InCallPhoneListener {
      */
     private final Set<Listener> mListeners = Collections.newSetFromMap(
             new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
+    /** Subset of {@link #mListeners} which opted out of coalesced change notifications. */
+    private final Set<Listener> mSynchronousListeners = Collections.newSetFromMap(
+            new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
     private final HashMap<String, List<CallUpdateListener>> mCallUpdateListenerMap = Maps
             .newHashMap();
 
@@ -85,7 +98,7 @@ public class CallList implements InCallPhoneListener {
         @Override
         public void onCallAdded(Phone phone, android.telecom.Call telecommCall) {
             Call call = new Call(telecommCall);
-            Log.d(this, "onCallAdded: callState=" + call.getState());
+            Log.d(this, "onCallAdded: callState=", call.getState());
             if (call.getState() == Call.State.INCOMING ||
                     call.getState() == Call.State.CALL_WAITING) {
                 onIncoming(call, call.getCannedSmsResponses());
@@ -150,13 +163,14 @@ public class CallList implements InCallPhoneListener {
      * Called when a single call has changed.
      */
     public void onIncoming(Call call, List<String> textMessages) {
-        Log.d(this, "onIncoming - " + call);
+        Log.d(this, "onIncoming - ", call);
+        CallLatencyTracer.getInstance().startCall(call.getId());
 
         // Update active subscription from call object. it will be set by
         // Telecomm service for incoming call and whenever active sub changes.
         if (call.mIsActiveSub) {
             int sub = call.getSubId();
-            Log.d(this, "onIncoming - sub:" + sub + " mSubId:" + mSubId);
+            Log.d(this, "onIncoming - sub:", sub, " mSubId:", mSubId);
             if (sub != mSubId) {
                 setActiveSubscription(sub);
             }
@@ -173,7 +187,7 @@ public class CallList implements InCallPhoneListener {
     }
 
     public void onUpgradeToVideo(Call call){
-        Log.d(this, "onUpgradeToVideo call=" + call);
+        Log.d(this, "onUpgradeToVideo call=", call);
         for (Listener listener : mListeners) {
             listener.onUpgradeToVideo(call);
         }
@@ -183,7 +197,7 @@ public class CallList implements InCallPhoneListener {
      */
     public void onUpdate(Call call) {
         PhoneAccountHandle ph = call.getAccountHandle();
-        Log.d(this, "onUpdate - " + call  + " ph:" + ph);
+        Log.d(this, "onUpdate - ", call, " ph:", ph);
         if (call.mIsActiveSub && ph != null && (!ph.getId().equals("E"))) {
             int sub = call.getSubId();
             Log.i(this, "onUpdate - sub:" + sub + " mSubId:" + mSubId);
@@ -233,9 +247,24 @@ public class CallList implements InCallPhoneListener {
     }
 
     public void addListener(Listener listener) {
+        addListener(listener, false /* synchronous */);
+    }
+
+    /**
+     * Adds a listener for changes to the call list.
+     *
+     * @param listener The listener to add.
+     * @param synchronous {@code True} if the listener must be told about every change as soon as
+     *      it happens, instead of receiving a single coalesced {@link Listener#onCallListChange}
+     *      once the current batch of Telecom callbacks has been processed.
+     */
+    public void addListener(Listener listener, boolean synchronous) {
         Preconditions.checkNotNull(listener);
 
         mListeners.add(listener);
+        if (synchronous) {
+            mSynchronousListeners.add(listener);
+        }
 
         // Let the listener know about the active calls immediately.
         listener.onCallListChange(this);
@@ -244,6 +273,7 @@ public class CallList implements InCallPhoneListener {
     public void removeListener(Listener listener) {
         if (listener != null) {
             mListeners.remove(listener);
+            mSynchronousListeners.remove(listener);
         }
     }
 
@@ -344,6 +374,21 @@ public class CallList implements InCallPhoneListener {
         return result;
     }
 
+    /**
+     * Returns the number of calls which are connecting or connected, not counting calls which
+     * are part of a conference.
+     */
+    public int getLiveCallCount() {
+        int count = 0;
+        for (int i = 0; i < mCallsByState.size(); i++) {
+            final int state = mCallsByState.keyAt(i);
+            if (state != Call.State.CONFERENCED && Call.State.isConnectingOrConnected(state)) {
+                count += mCallsByState.valueAt(i).size();
+            }
+        }
+        return count;
+    }
+
     public boolean hasLiveCall() {
         Call call = getFirstCall();
         if (call == null) {
@@ -395,8 +440,8 @@ public class CallList implements InCallPhoneListener {
     }
 
     /**
-     * Returns the [position]th call found in the call map with the specified state.
-     * TODO: Improve this logic to sort by call time.
+     * Returns the [position]th call found in the call map with the specified state. Calls are
+     * ordered by the time they entered the state.
      */
     public Call getCallWithState(int state, int positionToFind) {
         if (state != Call.State.PRE_DIAL_WAIT && getActiveSubscription()
@@ -404,20 +449,11 @@ public class CallList implements InCallPhoneListener {
             return getCallWithState(state, positionToFind, getActiveSubscription());
         }
 
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallById.values()) {
-            if (call.getState() == state) {
-                if (position >= positionToFind) {
-                    retval = call;
-                    break;
-                } else {
-                    position++;
-                }
-            }
+        final ArrayList<Call> calls = mCallsByState.get(state);
+        if (calls == null || positionToFind < 0 || positionToFind >= calls.size()) {
+            return null;
         }
-
-        return retval;
+        return calls.get(positionToFind);
     }
 
     /**
@@ -438,7 +474,9 @@ public class CallList implements InCallPhoneListener {
                 updateCallInMap(call);
             }
         }
-        notifyGenericListeners();
+        // The service is going away, so deliver the final state right away rather than on the
+        // next looper pass.
+        dispatchPendingCallListChange();
     }
 
     /**
@@ -447,7 +485,7 @@ public class CallList implements InCallPhoneListener {
      * @param call The call to update.
      */
     private void onUpdateCall(Call call) {
-        Log.d(this, "\t" + call);
+        Log.d(this, "\t", call);
         if (updateCallInMap(call)) {
             Log.i(this, "onUpdate - " + call);
         }
@@ -457,10 +495,38 @@ public class CallList implements InCallPhoneListener {
 
     /**
      * Sends a generic notification to all listeners that something has changed.
-     * It is up to the listeners to call back to determine what changed.
+     * It is up to the listeners to call back to determine what changed. Synchronous listeners are
+     * notified immediately; everyone else gets a coalesced notification via
+     * {@link #EVENT_NOTIFY_COALESCED_CHANGE}.
      */
     private void notifyGenericListeners() {
-        for (Listener listener : mListeners) {
+        if (!mSynchronousListeners.isEmpty()) {
+            dispatchCallListChange(mSynchronousListeners);
+        }
+
+        if (!mHandler.hasMessages(EVENT_NOTIFY_COALESCED_CHANGE)) {
+            mHandler.sendEmptyMessage(EVENT_NOTIFY_COALESCED_CHANGE);
+        }
+    }
+
+    /**
+     * Notifies all non-synchronous listeners of the changes made since the last notification.
+     */
+    private void dispatchPendingCallListChange() {
+        mHandler.removeMessages(EVENT_NOTIFY_COALESCED_CHANGE);
+
+        final Set<Listener> listeners;
+        if (mSynchronousListeners.isEmpty()) {
+            listeners = mListeners;
+        } else {
+            listeners = new HashSet<>(mListeners);
+            listeners.removeAll(mSynchronousListeners);
+        }
+        dispatchCallListChange(listeners);
+    }
+
+    private void dispatchCallListChange(Set<Listener> listeners) {
+        for (Listener listener : listeners) {
             listener.onCallListChange(this);
         }
     }
@@ -493,21 +559,70 @@ public class CallList implements InCallPhoneListener {
 
                 mCallById.put(call.getId(), call);
                 mCallByTelecommCall.put(call.getTelecommCall(), call);
+                updateStateIndex(call);
                 updated = true;
             }
         } else if (!isCallDead(call)) {
-            mCallById.put(call.getId(), call);
+            if (mCallById.put(call.getId(), call) == null) {
+                EventJournal.getInstance().record(EventJournal.EVENT_CALL_ADDED, call.getId(),
+                        call.getState(), 0);
+            }
             mCallByTelecommCall.put(call.getTelecommCall(), call);
+            updateStateIndex(call);
             updated = true;
         } else if (mCallById.containsKey(call.getId())) {
             mCallById.remove(call.getId());
             mCallByTelecommCall.remove(call.getTelecommCall());
+            removeFromStateIndex(call);
+            EventJournal.getInstance().record(EventJournal.EVENT_CALL_REMOVED, call.getId(),
+                    call.getState(), 0);
+            // Nobody is going to show the photo of a call that is gone.
+            ContactsAsyncHelper.cancelPhotoLoads(call.getId());
             updated = true;
         }
 
+        final int state = call.getState();
+        if (state != Call.State.INCOMING && state != Call.State.CALL_WAITING) {
+            CallLatencyTracer.getInstance().finishCall(call.getId());
+        }
+
         return updated;
     }
 
+    /**
+     * Moves the call to the end of the index list for its current state if the state changed
+     * since it was last indexed. Calls whose state did not change keep their position.
+     */
+    private void updateStateIndex(Call call) {
+        final int state = call.getState();
+        final Integer indexedState = mIndexedStateById.get(call.getId());
+        if (indexedState != null) {
+            if (indexedState == state) {
+                return;
+            }
+            removeFromStateIndex(call);
+        }
+
+        ArrayList<Call> calls = mCallsByState.get(state);
+        if (calls == null) {
+            calls = new ArrayList<>(2);
+            mCallsByState.put(state, calls);
+        }
+        calls.add(call);
+        mIndexedStateById.put(call.getId(), state);
+    }
+
+    private void removeFromStateIndex(Call call) {
+        final Integer indexedState = mIndexedStateById.remove(call.getId());
+        if (indexedState == null) {
+            return;
+        }
+        final ArrayList<Call> calls = mCallsByState.get(indexedState);
+        if (calls != null) {
+            calls.remove(call);
+        }
+    }
+
     private int getDelayForDisconnect(Call call) {
         Preconditions.checkState(call.getState() == Call.State.DISCONNECTED);
 
@@ -592,11 +707,17 @@ public class CallList implements InCallPhoneListener {
                     break;
                 case EVENT_NOTIFY_CHANGE:
                     Log.d(this, "EVENT_NOTIFY_CHANGE: ");
-                    notifyGenericListeners();
+                    // Listeners need to know about the new subscription before the active sub
+                    // change listeners run, so do not wait for the next looper pass.
+                    dispatchCallListChange(mSynchronousListeners);
+                    dispatchPendingCallListChange();
                     for (ActiveSubChangeListener listener : mActiveSubChangeListeners) {
                         listener.onActiveSubChanged(getActiveSubscription());
                     }
                     break;
+                case EVENT_NOTIFY_COALESCED_CHANGE:
+                    dispatchPendingCallListChange();
+                    break;
                 default:
                     Log.wtf(this, "Message not expected: " + msg.what);
                     break;
@@ -630,6 +751,8 @@ public class CallList implements InCallPhoneListener {
          * states, updating information, etc. This method will NOT be called for new incoming
          * calls and for calls that switch to disconnected state. Listeners must add actions
          * to those method implementations if they want to deal with those actions.
+         * Unless the listener was added as synchronous, changes are coalesced into a single
+         * call per main looper pass.
          */
         public void onCallListChange(CallList callList);
 
@@ -758,9 +881,14 @@ public class CallList implements InCallPhoneListener {
      * found in the call map with the specified state.
      */
     public Call getCallWithState(int state, int positionToFind, int subId) {
+        final ArrayList<Call> calls = mCallsByState.get(state);
+        if (calls == null) {
+            return null;
+        }
+
         Call retval = null;
         int position = 0;
-        for (Call call : mCallById.values()) {
+        for (Call call : calls) {
             PhoneAccountHandle ph = call.getAccountHandle();
             if ((call.getState() == state) && ((ph == null) || ph.getId().equals("E") ||
                     (call.getSubId() == subId))) {
@@ -770,7 +898,7 @@ public class CallList implements InCallPhoneListener {
                     android.telecom.Call child = children.get(0);
                     PhoneAccountHandle childph = child.getDetails().getAccountHandle();
                     if (Long.parseLong(childph.getId()) == subId) {
-                        Log.d(this,"getCallWithState:retval = "+call);
+                        Log.d(this, "getCallWithState:retval = ", call);
                         retval = call;
                         break;
                     } else {
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import com.android.incallui.InCallPresenter.InCallState;
+
+import android.telephony.SubscriptionManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable view of the {@link CallList} taken by {@link InCallPresenter} each time the in-call
+ * state is recalculated. The calls each {@link InCallPresenter.InCallStateListener} would
+ * otherwise look up on its own are derived once here and shared by all listeners.
+ */
+public final class CallListSnapshot {
+
+    /** Snapshot used while there is no call list, e.g. before set up or after tear down. */
+    public static final CallListSnapshot EMPTY = new CallListSnapshot(null, InCallState.NO_CALLS);
+
+    /*
+     * Bits returned by {@link #getChangesFrom}, describing what differs between two snapshots.
+     */
+    /** The primary call is a different call. */
+    public static final int CHANGE_PRIMARY_CALL = 1 << 0;
+    /** The secondary call is a different call. */
+    public static final int CHANGE_SECONDARY_CALL = 1 << 1;
+    /** The in-call state, the state of the primary or secondary call, or the set of calls in a
+     *  given state changed. */
+    public static final int CHANGE_CALL_STATE = 1 << 2;
+    /** The video state of the primary or secondary call changed. */
+    public static final int CHANGE_VIDEO_STATE = 1 << 3;
+    /** The session modification state of the primary or secondary call changed, or a different
+     *  call now has a pending upgrade request. */
+    public static final int CHANGE_SESSION_MODIFICATION_STATE = 1 << 4;
+    /** The capabilities of the primary or secondary call changed. */
+    public static final int CHANGE_CAPABILITIES = 1 << 5;
+    /** The child calls of the primary or secondary call changed. */
+    public static final int CHANGE_CHILD_CALLS = 1 << 6;
+    /** The active subscription changed. */
+    public static final int CHANGE_ACTIVE_SUBSCRIPTION = 1 << 7;
+    /** All of the above. Listeners registered with this mask see every state change. */
+    public static final int CHANGE_ALL = 0xff;
+
+    /**
+     * The fields of a call which are compared between snapshots. {@link Call} is mutable, so
+     * they are copied when the snapshot is taken.
+     */
+    private static final class CallFields {
+        private final Call mCall;
+        private final int mState;
+        private final int mVideoState;
+        private final int mSessionModificationState;
+        private final int mCapabilities;
+        private final List<String> mChildCallIds;
+
+        private CallFields(Call call) {
+            mCall = call;
+            if (call == null) {
+                mState = Call.State.INVALID;
+                mVideoState = 0;
+                mSessionModificationState = Call.SessionModificationState.NO_REQUEST;
+                mCapabilities = 0;
+                mChildCallIds = Collections.emptyList();
+            } else {
+                mState = call.getState();
+                mVideoState = call.getVideoState();
+                mSessionModificationState = call.getSessionModificationState();
+                mCapabilities = call.getTelecommCall().getDetails().getCallCapabilities();
+                final List<String> childCallIds = call.getChildCallIds();
+                mChildCallIds = childCallIds.isEmpty() ? Collections.<String>emptyList()
+                        : new ArrayList<>(childCallIds);
+            }
+        }
+
+        private int getChangesFrom(CallFields old, int callChangedBit) {
+            if (!Call.areSame(mCall, old.mCall)) {
+                // A different call; everything about it is new.
+                return callChangedBit | CHANGE_CALL_STATE | CHANGE_VIDEO_STATE
+                        | CHANGE_SESSION_MODIFICATION_STATE | CHANGE_CAPABILITIES
+                        | CHANGE_CHILD_CALLS;
+            }
+            int changes = 0;
+            if (mState != old.mState) {
+                changes |= CHANGE_CALL_STATE;
+            }
+            if (mVideoState != old.mVideoState) {
+                changes |= CHANGE_VIDEO_STATE;
+            }
+            if (mSessionModificationState != old.mSessionModificationState) {
+                changes |= CHANGE_SESSION_MODIFICATION_STATE;
+            }
+            if (mCapabilities != old.mCapabilities) {
+                changes |= CHANGE_CAPABILITIES;
+            }
+            if (!mChildCallIds.equals(old.mChildCallIds)) {
+                changes |= CHANGE_CHILD_CALLS;
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * The calls of a single subscription. Only populated when DSDA is enabled.
+     */
+    public static final class SubscriptionView {
+        private final int mSubId;
+        private final Call mIncomingCall;
+        private final Call mActiveCall;
+        private final Call mBackgroundCall;
+        private final boolean mHasLiveCall;
+
+        private SubscriptionView(CallList callList, int subId) {
+            mSubId = subId;
+            Call incoming = callList.getCallWithState(Call.State.INCOMING, 0, subId);
+            if (incoming == null) {
+                incoming = callList.getCallWithState(Call.State.CALL_WAITING, 0, subId);
+            }
+            mIncomingCall = incoming;
+            mActiveCall = callList.getCallWithState(Call.State.ACTIVE, 0, subId);
+            mBackgroundCall = callList.getCallWithState(Call.State.ONHOLD, 0, subId);
+            mHasLiveCall = callList.hasAnyLiveCall(subId);
+        }
+
+        public int getSubId() {
+            return mSubId;
+        }
+
+        public Call getIncomingCall() {
+            return mIncomingCall;
+        }
+
+        public Call getActiveCall() {
+            return mActiveCall;
+        }
+
+        public Call getBackgroundCall() {
+            return mBackgroundCall;
+        }
+
+        public boolean hasLiveCall() {
+            return mHasLiveCall;
+        }
+    }
+
+    private final InCallState mState;
+    private final int mActiveSubscription;
+
+    private final Call mIncomingCall;
+    private final Call mWaitingForAccountCall;
+    private final Call mPendingOutgoingCall;
+    private final Call mOutgoingCall;
+    private final Call mActiveCall;
+    private final Call mBackgroundCall;
+    private final Call mSecondBackgroundCall;
+    private final Call mDisconnectingCall;
+    private final Call mDisconnectedCall;
+    private final Call mVideoUpgradeRequestCall;
+
+    private final Call mPrimaryCall;
+    private final Call mSecondaryCall;
+    private final CallFields mPrimaryFields;
+    private final CallFields mSecondaryFields;
+
+    private final int mLiveCallCount;
+    private final boolean mHasLiveCall;
+
+    private final SubscriptionView[] mSubscriptionViews;
+
+    /**
+     * Takes a snapshot of the call list.
+     *
+     * @param callList The call list, may be {@code null} in which case the snapshot is empty.
+     * @param state The in-call state the snapshot is delivered with.
+     */
+    CallListSnapshot(CallList callList, InCallState state) {
+        mState = state;
+
+        if (callList == null) {
+            mActiveSubscription = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+            mIncomingCall = null;
+            mWaitingForAccountCall = null;
+            mPendingOutgoingCall = null;
+            mOutgoingCall = null;
+            mActiveCall = null;
+            mBackgroundCall = null;
+            mSecondBackgroundCall = null;
+            mDisconnectingCall = null;
+            mDisconnectedCall = null;
+            mVideoUpgradeRequestCall = null;
+            mPrimaryCall = null;
+            mSecondaryCall = null;
+            mLiveCallCount = 0;
+            mHasLiveCall = false;
+            mSubscriptionViews = new SubscriptionView[0];
+            mPrimaryFields = new CallFields(null);
+            mSecondaryFields = mPrimaryFields;
+            return;
+        }
+
+        mActiveSubscription = callList.getActiveSubscription();
+        mIncomingCall = callList.getIncomingCall();
+        mWaitingForAccountCall = callList.getWaitingForAccountCall();
+        mPendingOutgoingCall = callList.getPendingOutgoingCall();
+        mOutgoingCall = callList.getOutgoingCall();
+        mActiveCall = callList.getActiveCall();
+        mBackgroundCall = callList.getBackgroundCall();
+        mSecondBackgroundCall = callList.getSecondBackgroundCall();
+        mDisconnectingCall = callList.getDisconnectingCall();
+        mDisconnectedCall = callList.getDisconnectedCall();
+        mVideoUpgradeRequestCall = callList.getVideoUpgradeRequestCall();
+        mLiveCallCount = callList.getLiveCallCount();
+
+        // Same as CallList#hasLiveCall, from the calls looked up above.
+        Call firstCall = mIncomingCall;
+        if (firstCall == null) {
+            firstCall = mPendingOutgoingCall;
+        }
+        if (firstCall == null) {
+            firstCall = mOutgoingCall;
+        }
+        if (firstCall == null) {
+            firstCall = mActiveCall;
+        }
+        mHasLiveCall = firstCall != null;
+
+        if (state == InCallState.INCOMING) {
+            mPrimaryCall = mIncomingCall;
+            mSecondaryCall = null;
+        } else if (state == InCallState.PENDING_OUTGOING || state == InCallState.OUTGOING) {
+            mPrimaryCall = mOutgoingCall != null ? mOutgoingCall : mPendingOutgoingCall;
+            // getCallToDisplay doesn't go through outgoing or incoming calls. It will return the
+            // highest priority call to display as the secondary call.
+            mSecondaryCall = getCallToDisplay(null, true);
+        } else if (state == InCallState.INCALL) {
+            mPrimaryCall = getCallToDisplay(null, false);
+            mSecondaryCall = getCallToDisplay(mPrimaryCall, true);
+        } else {
+            mPrimaryCall = null;
+            mSecondaryCall = null;
+        }
+        mPrimaryFields = new CallFields(mPrimaryCall);
+        mSecondaryFields = new CallFields(mSecondaryCall);
+
+        if (callList.isDsdaEnabled()) {
+            mSubscriptionViews = new SubscriptionView[CallList.PHONE_COUNT];
+            for (int i = 0; i < CallList.PHONE_COUNT; i++) {
+                final int[] subId = callList.getSubId(i);
+                if (subId != null) {
+                    mSubscriptionViews[i] = new SubscriptionView(callList, subId[0]);
+                }
+            }
+        } else {
+            mSubscriptionViews = new SubscriptionView[0];
+        }
+    }
+
+    /**
+     * Get the highest priority call to display.
+     * Goes through the calls and chooses which to return based on priority of which type of call
+     * to display to the user. Callers can use the "ignore" feature to get the second best call
+     * by passing a previously found primary call as ignore.
+     *
+     * @param ignore A call to ignore if found.
+     */
+    private Call getCallToDisplay(Call ignore, boolean skipDisconnected) {
+        // Active calls come second.  An active call always gets precedent.
+        if (mActiveCall != null && mActiveCall != ignore) {
+            return mActiveCall;
+        }
+
+        // Disconnected calls get primary position if there are no active calls
+        // to let user know quickly what call has disconnected. Disconnected
+        // calls are very short lived.
+        if (!skipDisconnected) {
+            if (mDisconnectingCall != null && mDisconnectingCall != ignore) {
+                return mDisconnectingCall;
+            }
+            if (mDisconnectedCall != null && mDisconnectedCall != ignore) {
+                return mDisconnectedCall;
+            }
+        }
+
+        // Then we go to background call (calls on hold)
+        if (mBackgroundCall != null && mBackgroundCall != ignore) {
+            return mBackgroundCall;
+        }
+
+        // Lastly, we go to a second background call.
+        return mSecondBackgroundCall;
+    }
+
+    public InCallState getState() {
+        return mState;
+    }
+
+    /**
+     * Compares this snapshot against an older one.
+     *
+     * @param old The previous snapshot, or {@code null} if there is none.
+     * @return A mask of {@code CHANGE_*} bits describing what changed.
+     */
+    public int getChangesFrom(CallListSnapshot old) {
+        if (old == null) {
+            return CHANGE_ALL;
+        }
+
+        int changes = mPrimaryFields.getChangesFrom(old.mPrimaryFields, CHANGE_PRIMARY_CALL)
+                | mSecondaryFields.getChangesFrom(old.mSecondaryFields, CHANGE_SECONDARY_CALL);
+
+        if (mState != old.mState
+                || mLiveCallCount != old.mLiveCallCount
+                || mIncomingCall != old.mIncomingCall
+                || mWaitingForAccountCall != old.mWaitingForAccountCall
+                || mPendingOutgoingCall != old.mPendingOutgoingCall
+                || mOutgoingCall != old.mOutgoingCall
+                || mActiveCall != old.mActiveCall
+                || mBackgroundCall != old.mBackgroundCall
+                || mSecondBackgroundCall != old.mSecondBackgroundCall
+                || mDisconnectingCall != old.mDisconnectingCall
+                || mDisconnectedCall != old.mDisconnectedCall) {
+            changes |= CHANGE_CALL_STATE;
+        }
+        if (mVideoUpgradeRequestCall != old.mVideoUpgradeRequestCall) {
+            changes |= CHANGE_SESSION_MODIFICATION_STATE;
+        }
+        if (mActiveSubscription != old.mActiveSubscription
+                || getSubscriptionLiveCalls() != old.getSubscriptionLiveCalls()) {
+            changes |= CHANGE_ACTIVE_SUBSCRIPTION;
+        }
+        return changes;
+    }
+
+    /**
+     * @return A bit per phone slot which is set if the slot has a live call.
+     */
+    private int getSubscriptionLiveCalls() {
+        int liveCalls = 0;
+        for (int i = 0; i < mSubscriptionViews.length; i++) {
+            if (mSubscriptionViews[i] != null && mSubscriptionViews[i].hasLiveCall()) {
+                liveCalls |= 1 << i;
+            }
+        }
+        return liveCalls;
+    }
+
+    public int getActiveSubscription() {
+        return mActiveSubscription;
+    }
+
+    /**
+     * The call shown in the primary slot of the call card.
+     */
+    public Call getPrimaryCall() {
+        return mPrimaryCall;
+    }
+
+    /**
+     * The call shown in the secondary slot of the call card.
+     */
+    public Call getSecondaryCall() {
+        return mSecondaryCall;
+    }
+
+    public Call getIncomingCall() {
+        return mIncomingCall;
+    }
+
+    public Call getWaitingForAccountCall() {
+        return mWaitingForAccountCall;
+    }
+
+    public Call getPendingOutgoingCall() {
+        return mPendingOutgoingCall;
+    }
+
+    public Call getOutgoingCall() {
+        return mOutgoingCall;
+    }
+
+    public Call getActiveCall() {
+        return mActiveCall;
+    }
+
+    public Call getBackgroundCall() {
+        return mBackgroundCall;
+    }
+
+    public Call getActiveOrBackgroundCall() {
+        return mActiveCall != null ? mActiveCall : mBackgroundCall;
+    }
+
+    public Call getOutgoingOrActive() {
+        return mOutgoingCall != null ? mOutgoingCall : mActiveCall;
+    }
+
+    public Call getDisconnectingCall() {
+        return mDisconnectingCall;
+    }
+
+    public Call getDisconnectedCall() {
+        return mDisconnectedCall;
+    }
+
+    public Call getVideoUpgradeRequestCall() {
+        return mVideoUpgradeRequestCall;
+    }
+
+    /**
+     * @return The number of connecting or connected calls, not counting conference children.
+     */
+    public int getLiveCallCount() {
+        return mLiveCallCount;
+    }
+
+    /**
+     * @see CallList#hasLiveCall()
+     */
+    public boolean hasLiveCall() {
+        return mHasLiveCall;
+    }
+
+    /**
+     * Returns the calls of the given subscription, or {@code null} if DSDA is not enabled or the
+     * subscription is unknown.
+     */
+    public SubscriptionView getSubscriptionView(int subId) {
+        for (SubscriptionView view : mSubscriptionViews) {
+            if (view != null && view.getSubId() == subId) {
+                return view;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the calls of the subscription in the given phone slot, or {@code null} if DSDA is
+     * not enabled.
+     */
+    public SubscriptionView getSubscriptionViewForPhone(int phoneId) {
+        if (phoneId < 0 || phoneId >= mSubscriptionViews.length) {
+            return null;
+        }
+        return mSubscriptionViews[phoneId];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "[%s, primary:%s, secondary:%s, live:%d, activeSub:%d]",
+                mState,
+                mPrimaryCall == null ? null : mPrimaryCall.getId(),
+                mSecondaryCall == null ? null : mSecondaryCall.getId(),
+                mLiveCallCount,
+                mActiveSubscription);
+    }
+}
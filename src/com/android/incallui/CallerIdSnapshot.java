@@ -0,0 +1,547 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Compact on-disk index of the contacts' phone numbers, used to show the caller's name and
+ * label on the very first frame of an incoming call. The index is memory mapped, so a lookup
+ * is a binary search over the mapped file and needs no provider query. Thumbnails are not kept
+ * in the file; a record only tells whether the contact has one, to be loaded off the main
+ * thread.
+ *
+ * The file is mapped on a background thread, and rebuilt there whenever the contacts provider
+ * reports a change. Only contacts updated or deleted since the previous sync are queried; the
+ * rest of the records are carried over from the existing file.
+ *
+ * Records are indexed on the last {@link #MIN_MATCH} digits of their number, and a candidate
+ * is only taken once {@link PhoneNumberUtils#compare} confirms the whole number matches. A hit
+ * is still a best guess, which the regular asynchronous query later confirms or corrects.
+ *
+ * File layout (big endian):
+ * <pre>
+ *   header:  int magic, int version, long lastSyncMs, int count, int recordsStart
+ *   index:   count * (int keyHash, int recordOffset), sorted by keyHash
+ *   records: (utf number, long contactId, utf name, utf label, utf lookupKey, long photoId)*
+ * </pre>
+ * where utf is a short length followed by that many UTF-8 bytes, number is normalized, record
+ * offsets are relative to the start of the records, and photoId is 0 if the contact has no
+ * photo.
+ */
+public class CallerIdSnapshot {
+
+    private static final String TAG = CallerIdSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "caller_id_snapshot.bin";
+    private static final int MAGIC = 0x43494453; // "CIDS"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4;
+
+    /** Number of trailing digits records are indexed on. */
+    private static final int MIN_MATCH = 7;
+    /** Contacts tend to change in bursts (e.g. during account sync), so wait before syncing. */
+    private static final long SYNC_DELAY_MS = 5000;
+
+    private static final int MSG_SYNC = 1;
+
+    private static final String[] PHONE_PROJECTION = new String[] {
+            Phone.CONTACT_ID,
+            Phone.NUMBER,
+            Phone.DISPLAY_NAME,
+            Phone.TYPE,
+            Phone.LABEL,
+            Phone.LOOKUP_KEY,
+            Phone.PHOTO_ID,
+    };
+
+    /**
+     * A caller id record.
+     */
+    public static class Record {
+        /** The normalized number. */
+        public final String number;
+        public final long contactId;
+        public final String name;
+        public final String label;
+        public final String lookupKey;
+        public final long photoId;
+
+        Record(String number, long contactId, String name, String label, String lookupKey,
+                long photoId) {
+            this.number = number;
+            this.contactId = contactId;
+            this.name = name;
+            this.label = label;
+            this.lookupKey = lookupKey;
+            this.photoId = photoId;
+        }
+
+        /**
+         * Returns the uri of the contact's thumbnail, or {@code null} if the record has none.
+         */
+        public Uri getPhotoUri() {
+            if (photoId == 0) {
+                return null;
+            }
+            return Uri.withAppendedPath(ContentUris.withAppendedId(Contacts.CONTENT_URI,
+                    contactId), Contacts.Photo.CONTENT_DIRECTORY);
+        }
+    }
+
+    private static CallerIdSnapshot sInstance;
+
+    private final Context mContext;
+    private final File mFile;
+    private final Handler mSyncHandler;
+    /** The mapped file. Replaced, never modified, when a sync completes. */
+    private volatile ByteBuffer mBuffer;
+    /** Whether the existing file was mapped. Only used on the sync thread. */
+    private boolean mMapped;
+
+    private final ContentObserver mContactsObserver;
+
+    public static synchronized CallerIdSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CallerIdSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CallerIdSnapshot(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+
+        final HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mSyncHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_SYNC) {
+                    sync();
+                }
+            }
+        };
+        mContactsObserver = new ContentObserver(mSyncHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                scheduleSync(SYNC_DELAY_MS);
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                ContactsContract.Contacts.CONTENT_URI, true, mContactsObserver);
+
+        // The file is mapped by the first sync, off the main thread.
+        scheduleSync(0);
+    }
+
+    /**
+     * Looks up the number in the snapshot. Safe to call from the main thread.
+     *
+     * @return The record for the number or {@code null} if there is none, or if the snapshot is
+     *         not mapped yet.
+     */
+    public Record lookup(String number) {
+        final String normalized = normalize(number);
+        final ByteBuffer mapped = mBuffer;
+        if (normalized == null || mapped == null) {
+            return null;
+        }
+        try {
+            return lookup(mapped.duplicate(), normalized);
+        } catch (RuntimeException e) {
+            // A record points outside of the file.
+            Log.e(TAG, "Corrupt snapshot", e);
+            return null;
+        }
+    }
+
+    private static Record lookup(ByteBuffer buffer, String number) {
+        final int count = buffer.getInt(16);
+        final int recordsStart = buffer.getInt(20);
+        final int hash = getKey(number).hashCode();
+
+        // Find the first index entry with a matching hash.
+        int low = 0;
+        int high = count - 1;
+        int first = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midHash = buffer.getInt(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else {
+                if (midHash == hash) {
+                    first = mid;
+                }
+                high = mid - 1;
+            }
+        }
+        if (first < 0) {
+            return null;
+        }
+
+        // Hashes collide, and so do numbers ending with the same digits, so compare the whole
+        // number of all the entries with the same hash.
+        for (int i = first; i < count; i++) {
+            final int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+            if (buffer.getInt(entry) != hash) {
+                break;
+            }
+            buffer.position(recordsStart + buffer.getInt(entry + 4));
+            final Record record = readRecord(buffer);
+            if (PhoneNumberUtils.compare(number, record.number)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the normalized number, or {@code null} if it is not a phone number.
+     */
+    private static String normalize(String number) {
+        if (TextUtils.isEmpty(number) || number.indexOf('@') >= 0) {
+            return null;
+        }
+        final String normalized = PhoneNumberUtils.normalizeNumber(number);
+        return TextUtils.isEmpty(normalized) ? null : normalized;
+    }
+
+    /**
+     * Returns the key a normalized number is indexed on: its last {@link #MIN_MATCH} digits.
+     */
+    private static String getKey(String normalized) {
+        return normalized.length() <= MIN_MATCH ? normalized
+                : normalized.substring(normalized.length() - MIN_MATCH);
+    }
+
+    private void scheduleSync(long delayMs) {
+        mSyncHandler.removeMessages(MSG_SYNC);
+        mSyncHandler.sendEmptyMessageDelayed(MSG_SYNC, delayMs);
+    }
+
+    /**
+     * Brings the file up to date with the contacts provider. Runs on the sync thread.
+     */
+    private void sync() {
+        if (!mMapped) {
+            mBuffer = map(mFile);
+            mMapped = true;
+        }
+        final long syncStartMs = System.currentTimeMillis();
+        final ByteBuffer mapped = mBuffer;
+        final long lastSyncMs = mapped == null ? 0 : mapped.getLong(8);
+
+        final ArrayList<Record> records = new ArrayList<>();
+        if (mapped != null) {
+            try {
+                readAllRecords(mapped.duplicate(), records);
+            } catch (RuntimeException e) {
+                // A record points outside of the file. Rebuild it from scratch.
+                Log.e(TAG, "Corrupt snapshot", e);
+                records.clear();
+                mBuffer = null;
+                sync();
+                return;
+            }
+        }
+
+        final ContentResolver resolver = mContext.getContentResolver();
+        boolean changed = mapped == null;
+        try {
+            changed |= removeDeletedContacts(resolver, lastSyncMs, records);
+            changed |= addUpdatedContacts(resolver, lastSyncMs, records);
+        } catch (RuntimeException e) {
+            // The provider may be unavailable, e.g. while it is being upgraded. Try again on the
+            // next change.
+            Log.e(TAG, "Unable to query contacts", e);
+            return;
+        }
+
+        if (!changed) {
+            Log.d(TAG, "Snapshot up to date, " + records.size() + " records");
+            return;
+        }
+
+        try {
+            write(records, syncStartMs);
+            mBuffer = map(mFile);
+            Log.d(TAG, "Snapshot written, " + records.size() + " records");
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write snapshot", e);
+        }
+    }
+
+    private boolean removeDeletedContacts(ContentResolver resolver, long sinceMs,
+            ArrayList<Record> records) {
+        if (sinceMs == 0 || records.isEmpty()) {
+            return false;
+        }
+        final HashSet<Long> deleted = new HashSet<>();
+        final Cursor cursor = resolver.query(DeletedContacts.CONTENT_URI,
+                new String[] { DeletedContacts.CONTACT_ID },
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?",
+                new String[] { String.valueOf(sinceMs) }, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                deleted.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return removeContacts(records, deleted);
+    }
+
+    private boolean addUpdatedContacts(ContentResolver resolver, long sinceMs,
+            ArrayList<Record> records) {
+        final String selection = Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?";
+        final String[] selectionArgs = new String[] { String.valueOf(sinceMs) };
+
+        // Contacts whose numbers were all removed have no phone rows left, so the updated
+        // contacts are listed separately for their old numbers to be dropped.
+        final HashSet<Long> updatedContacts = new HashSet<>();
+        if (sinceMs != 0 && !records.isEmpty()) {
+            final Cursor contactsCursor = resolver.query(Contacts.CONTENT_URI,
+                    new String[] { Contacts._ID }, selection, selectionArgs, null);
+            if (contactsCursor == null) {
+                return false;
+            }
+            try {
+                while (contactsCursor.moveToNext()) {
+                    updatedContacts.add(contactsCursor.getLong(0));
+                }
+            } finally {
+                contactsCursor.close();
+            }
+        }
+
+        final Cursor cursor = resolver.query(Phone.CONTENT_URI, PHONE_PROJECTION, selection,
+                selectionArgs, null);
+        if (cursor == null) {
+            return false;
+        }
+
+        final ArrayList<Record> updated = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                final String number = normalize(cursor.getString(1));
+                if (number == null) {
+                    continue;
+                }
+                final long contactId = cursor.getLong(0);
+                final CharSequence label = Phone.getTypeLabel(mContext.getResources(),
+                        cursor.getInt(3), cursor.getString(4));
+                updatedContacts.add(contactId);
+                updated.add(new Record(number, contactId, cursor.getString(2),
+                        label == null ? null : label.toString(), cursor.getString(5),
+                        cursor.isNull(6) ? 0 : cursor.getLong(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Drop the old numbers of the updated contacts before adding the current ones.
+        final boolean changed = removeContacts(records, updatedContacts);
+        records.addAll(updated);
+        return changed || !updated.isEmpty();
+    }
+
+    private static boolean removeContacts(ArrayList<Record> records, HashSet<Long> ids) {
+        boolean changed = false;
+        if (ids.isEmpty()) {
+            return false;
+        }
+        final Iterator<Record> it = records.iterator();
+        while (it.hasNext()) {
+            if (ids.contains(it.next().contactId)) {
+                it.remove();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void write(ArrayList<Record> records, long syncTimeMs) throws IOException {
+        final Record[] sorted = records.toArray(new Record[records.size()]);
+        Arrays.sort(sorted, new Comparator<Record>() {
+            @Override
+            public int compare(Record lhs, Record rhs) {
+                return Integer.compare(getKey(lhs.number).hashCode(),
+                        getKey(rhs.number).hashCode());
+            }
+        });
+
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+        final int[] hashes = new int[sorted.length];
+        final int[] recordOffsets = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            final Record record = sorted[i];
+            recordOffsets[i] = recordOut.size();
+            hashes[i] = getKey(record.number).hashCode();
+            writeString(recordOut, record.number);
+            recordOut.writeLong(record.contactId);
+            writeString(recordOut, record.name);
+            writeString(recordOut, record.label);
+            writeString(recordOut, record.lookupKey);
+            recordOut.writeLong(record.photoId);
+        }
+
+        final int recordsStart = HEADER_SIZE + sorted.length * INDEX_ENTRY_SIZE;
+
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(syncTimeMs);
+            out.writeInt(sorted.length);
+            out.writeInt(recordsStart);
+            for (int i = 0; i < sorted.length; i++) {
+                out.writeInt(hashes[i]);
+                out.writeInt(recordOffsets[i]);
+            }
+            recordBytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Unable to rename " + tmp);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the record at the buffer's position.
+     */
+    private static Record readRecord(ByteBuffer buffer) {
+        final String number = readString(buffer);
+        final long contactId = buffer.getLong();
+        final String name = readString(buffer);
+        final String label = readString(buffer);
+        final String lookupKey = readString(buffer);
+        final long photoId = buffer.getLong();
+        return new Record(number, contactId, name, label, lookupKey, photoId);
+    }
+
+    private static void readAllRecords(ByteBuffer buffer, ArrayList<Record> records) {
+        final int count = buffer.getInt(16);
+        final int recordsStart = buffer.getInt(20);
+        for (int i = 0; i < count; i++) {
+            buffer.position(recordsStart + buffer.getInt(HEADER_SIZE + i * INDEX_ENTRY_SIZE + 4));
+            records.add(readRecord(buffer));
+        }
+    }
+
+    /**
+     * Maps the file, or returns {@code null} if it is missing or not a valid snapshot.
+     */
+    private static ByteBuffer map(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                Log.w(TAG, "Ignoring snapshot with unknown format");
+                return null;
+            }
+            // The index has to fit in the file and end where the records start.
+            final int count = buffer.getInt(16);
+            final int recordsStart = buffer.getInt(20);
+            if (count < 0 || count > (buffer.capacity() - HEADER_SIZE) / INDEX_ENTRY_SIZE
+                    || recordsStart != HEADER_SIZE + count * INDEX_ENTRY_SIZE) {
+                Log.w(TAG, "Ignoring corrupt snapshot");
+                return null;
+            }
+            return buffer;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to map snapshot", e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    // The mapping stays valid after the file is closed.
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+}
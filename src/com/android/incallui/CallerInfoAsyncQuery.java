@@ -31,10 +31,8 @@ import android.telephony.SubscriptionManager;
 import android.text.TextUtils;
 
 import com.android.contacts.common.util.PhoneNumberHelper;
-import com.android.contacts.common.util.TelephonyManagerUtils;
 
 import java.util.Arrays;
-import java.util.Locale;
 
 /**
  * Helper class to make it easier to run asynchronous caller-id lookup queries.
@@ -79,6 +77,8 @@ public class CallerInfoAsyncQuery {
         public Object cookie;
         public int event;
         public String number;
+        /** The caller info built on the worker thread; read once the reply arrives. */
+        public CallerInfo callerInfo;
     }
 
 
@@ -165,30 +165,116 @@ public class CallerInfoAsyncQuery {
 
                     switch (cw.event) {
                         case EVENT_NEW_QUERY:
-                            //start the sql command.
-                            super.handleMessage(msg);
+                            //start the sql command, and build the CallerInfo object from
+                            //the result here rather than on the thread that started the query.
+                            Cursor cursor = null;
+                            try {
+                                cursor = mQueryContext.getContentResolver().query(args.uri,
+                                        args.projection, args.selection, args.selectionArgs,
+                                        args.orderBy);
+                            } catch (Exception e) {
+                                Log.w(this, "Exception thrown during handling EVENT_ARG_QUERY: "
+                                        + e);
+                            }
+                            try {
+                                cw.callerInfo = buildCallerInfo(cw, args.uri, cursor);
+                            } finally {
+                                // The cursor may have been closed in CallerInfo.getCallerInfo()
+                                if (cursor != null && !cursor.isClosed()) {
+                                    cursor.close();
+                                }
+                            }
+                            sendReply(msg, args);
                             break;
 
                         // shortcuts to avoid query for recognized numbers.
                         case EVENT_EMERGENCY_NUMBER:
                         case EVENT_VOICEMAIL_NUMBER:
+                            cw.callerInfo = buildCallerInfo(cw, args.uri, null);
+                            sendReply(msg, args);
+                            break;
 
                         case EVENT_ADD_LISTENER:
                         case EVENT_END_OF_QUEUE:
                             // query was already completed, so just send the reply.
-                            // passing the original token value back to the caller
-                            // on top of the event values in arg1.
-                            Message reply = args.handler.obtainMessage(msg.what);
-                            reply.obj = args;
-                            reply.arg1 = msg.arg1;
-
-                            reply.sendToTarget();
-
+                            sendReply(msg, args);
                             break;
                         default:
                     }
                 }
             }
+
+            /**
+             * Sends the reply to the thread that started the query, passing the original token
+             * value back to the caller on top of the event values in arg1.
+             */
+            private void sendReply(Message msg, WorkerArgs args) {
+                Message reply = args.handler.obtainMessage(msg.what);
+                reply.obj = args;
+                reply.arg1 = msg.arg1;
+
+                reply.sendToTarget();
+            }
+        }
+
+        /**
+         * Builds the CallerInfo object for a query, including the secondary lookup, the geocoded
+         * description and the formatted number. Runs on the worker thread since all of these
+         * may hit the disk or the contacts provider.
+         */
+        private CallerInfo buildCallerInfo(CookieWrapper cw, Uri queryUri, Cursor cursor) {
+            // adjust the callerInfo data as needed, and only if it was set from the
+            // initial query request.
+            // Change the callerInfo number ONLY if it is an emergency number or the
+            // voicemail number, and adjust other data (including photoResource)
+            // accordingly.
+            if (cw.event == EVENT_EMERGENCY_NUMBER) {
+                // Note we're setting the phone number here (refer to javadoc
+                // comments at the top of CallerInfo class).
+                return new CallerInfo().markAsEmergency(mQueryContext, cw.number);
+            } else if (cw.event == EVENT_VOICEMAIL_NUMBER) {
+                return new CallerInfo().markAsVoiceMail(mQueryContext);
+            }
+
+            CallerInfo callerInfo = CallerInfo.getCallerInfo(mQueryContext, queryUri, cursor);
+            Log.d(this, "==> Got callerInfo: " + callerInfo);
+
+            CallerInfo newCallerInfo = CallerInfo.doSecondaryLookupIfNecessary(
+                    mQueryContext, cw.number, callerInfo);
+            if (newCallerInfo != callerInfo) {
+                callerInfo = newCallerInfo;
+                Log.d(this, "#####async contact look up with numeric username"
+                        + callerInfo);
+            }
+
+            // Final step: look up the geocoded description.
+            if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
+                // Note we do this only if we *don't* have a valid name (i.e. if
+                // no contacts matched the phone number of the incoming call),
+                // since that's the only case where the incoming-call UI cares
+                // about this field.
+                //
+                // (TODO: But if we ever want the UI to show the geoDescription
+                // even when we *do* match a contact, we'll need to either call
+                // updateGeoDescription() unconditionally here, or possibly add a
+                // new parameter to CallerInfoAsyncQuery.startQuery() to force
+                // the geoDescription field to be populated.)
+
+                //if (TextUtils.isEmpty(callerInfo.name)) {
+                    // Actually when no contacts match the incoming phone number,
+                    // the CallerInfo object is totally blank here (i.e. no name
+                    // *or* phoneNumber).  So we need to pass in cw.number as
+                    // a fallback number.
+                    callerInfo.updateGeoDescription(mQueryContext, cw.number);
+                //}
+            }
+
+            // Use the number entered by the user for display.
+            if (!TextUtils.isEmpty(cw.number)) {
+                callerInfo.phoneNumber = NumberIntelligence.getInstance(mQueryContext)
+                        .formatNumber(cw.number, callerInfo.normalizedNumber);
+            }
+            return callerInfo;
         }
 
 
@@ -207,8 +293,9 @@ public class CallerInfoAsyncQuery {
         /**
          * Overrides onQueryComplete from AsyncQueryHandler.
          *
-         * This method takes into account the state of this class; we construct the CallerInfo
-         * object only once for each set of listeners. When the query thread has done its work
+         * This method takes into account the state of this class; the CallerInfo object is
+         * constructed only once for each set of listeners, on the worker thread, so all that is
+         * left to do here is to hand it to the listeners. When the query thread has done its work
          * and calls this method, we inform the remaining listeners in the queue, until we're
          * out of listeners.  Once we get the message indicating that we should expect no new
          * listeners for this CallerInfo object, we release the AsyncCursorInfo back into the
@@ -235,66 +322,14 @@ public class CallerInfoAsyncQuery {
                     return;
                 }
 
-                // check the token and if needed, create the callerinfo object.
+                // check the token and if needed, pick up the callerinfo object built on the
+                // worker thread.
                 if (mCallerInfo == null) {
-                    if ((mQueryContext == null) || (mQueryUri == null)) {
+                    if ((mQueryContext == null) || (mQueryUri == null) || (cw.callerInfo == null)) {
                         throw new QueryPoolException
                             ("Bad context or query uri, or CallerInfoAsyncQuery already released.");
                     }
-
-                    // adjust the callerInfo data as needed, and only if it was set from the
-                    // initial query request.
-                    // Change the callerInfo number ONLY if it is an emergency number or the
-                    // voicemail number, and adjust other data (including photoResource)
-                    // accordingly.
-                    if (cw.event == EVENT_EMERGENCY_NUMBER) {
-                        // Note we're setting the phone number here (refer to javadoc
-                        // comments at the top of CallerInfo class).
-                        mCallerInfo = new CallerInfo().markAsEmergency(mQueryContext, cw.number);
-                    } else if (cw.event == EVENT_VOICEMAIL_NUMBER) {
-                        mCallerInfo = new CallerInfo().markAsVoiceMail(mQueryContext);
-                    } else {
-                        mCallerInfo = CallerInfo.getCallerInfo(mQueryContext, mQueryUri, cursor);
-                        Log.d(this, "==> Got mCallerInfo: " + mCallerInfo);
-
-                        CallerInfo newCallerInfo = CallerInfo.doSecondaryLookupIfNecessary(
-                                mQueryContext, cw.number, mCallerInfo);
-                        if (newCallerInfo != mCallerInfo) {
-                            mCallerInfo = newCallerInfo;
-                            Log.d(this, "#####async contact look up with numeric username"
-                                    + mCallerInfo);
-                        }
-
-                        // Final step: look up the geocoded description.
-                        if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
-                            // Note we do this only if we *don't* have a valid name (i.e. if
-                            // no contacts matched the phone number of the incoming call),
-                            // since that's the only case where the incoming-call UI cares
-                            // about this field.
-                            //
-                            // (TODO: But if we ever want the UI to show the geoDescription
-                            // even when we *do* match a contact, we'll need to either call
-                            // updateGeoDescription() unconditionally here, or possibly add a
-                            // new parameter to CallerInfoAsyncQuery.startQuery() to force
-                            // the geoDescription field to be populated.)
-
-                            //if (TextUtils.isEmpty(mCallerInfo.name)) {
-                                // Actually when no contacts match the incoming phone number,
-                                // the CallerInfo object is totally blank here (i.e. no name
-                                // *or* phoneNumber).  So we need to pass in cw.number as
-                                // a fallback number.
-                                mCallerInfo.updateGeoDescription(mQueryContext, cw.number);
-                            //}
-                        }
-
-                        // Use the number entered by the user for display.
-                        if (!TextUtils.isEmpty(cw.number)) {
-                            mCallerInfo.phoneNumber = PhoneNumberHelper.formatNumber(cw.number,
-                                    mCallerInfo.normalizedNumber,
-                                    TelephonyManagerUtils.getCurrentCountryIso(mQueryContext,
-                                            Locale.getDefault()));
-                        }
-                    }
+                    mCallerInfo = cw.callerInfo;
 
                     Log.d(this, "constructing CallerInfo object for token: " + token);
 
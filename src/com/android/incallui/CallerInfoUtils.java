@@ -44,6 +44,8 @@ public class CallerInfoUtils {
         if (info.numberPresentation == TelecomManager.PRESENTATION_ALLOWED) {
             // Start the query with the number provided from the call.
             Log.d(TAG, "==> Actually starting CallerInfoAsyncQuery.startQuery()...");
+            CallLatencyTracer.getInstance().begin(call.getId(),
+                    CallLatencyTracer.SPAN_CALLER_INFO_QUERY);
             CallerInfoAsyncQuery.startQuery(QUERY_TOKEN, context, info, listener, call);
         }
         return info;
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.SystemClock;
+import android.util.Range;
+import android.util.Size;
+
+import com.google.common.collect.Lists;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The capabilities of the cameras of the device, read once and kept for the life of the process,
+ * since they don't change.
+ *
+ * Reading them takes a binder call to the camera service per camera, so they are read on a
+ * background thread when the in-call service is bound, ahead of the first video call. If they
+ * are needed before that completes, the caller reads them itself.
+ *
+ * The cameras can't be read while the device policy disables them. Such a failure is remembered
+ * for a while, during which no camera is reported, so callers on the main thread don't make the
+ * binder calls over and over.
+ */
+public class CameraCapabilityRegistry {
+    private static final String TAG = "CameraCapabilityRegistry";
+
+    /** How long the cameras are not read again after failing to read them. */
+    private static final long FAILED_LOAD_RETRY_MS = 30000;
+
+    /** The largest preview a video call is expected to use, in pixels. */
+    private static final int MAX_VIDEO_PIXELS = 640 * 480;
+
+    /**
+     * The capabilities of one camera.
+     */
+    public static class CameraInfo {
+        private final String mId;
+        private final int mFacing;
+        private final int mSensorOrientation;
+        private final float mMaxZoom;
+        private final Size[] mPreviewSizes;
+        private final Range<Integer>[] mFpsRanges;
+        private final Size mVideoSize;
+
+        CameraInfo(String id, CameraCharacteristics c) {
+            mId = id;
+            mFacing = getOrDefault(c, CameraCharacteristics.LENS_FACING, -1);
+            mSensorOrientation = getOrDefault(c, CameraCharacteristics.SENSOR_ORIENTATION, 0);
+            mMaxZoom = getOrDefault(c, CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM,
+                    1.0f);
+            final StreamConfigurationMap map =
+                    c.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            final Size[] sizes = map != null ? map.getOutputSizes(SurfaceTexture.class) : null;
+            mPreviewSizes = sizes != null ? sizes : new Size[0];
+            mFpsRanges = c.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            mVideoSize = pickVideoSize(mPreviewSizes);
+        }
+
+        private static <T> T getOrDefault(CameraCharacteristics c,
+                CameraCharacteristics.Key<T> key, T defaultValue) {
+            final T value = c.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        /**
+         * @return The largest preview size up to the size of a video call preview, or the
+         *         smallest one if they are all larger.
+         */
+        private static Size pickVideoSize(Size[] sizes) {
+            Size best = null;
+            Size smallest = null;
+            for (Size size : sizes) {
+                final int pixels = size.getWidth() * size.getHeight();
+                if (smallest == null || pixels < smallest.getWidth() * smallest.getHeight()) {
+                    smallest = size;
+                }
+                if (pixels <= MAX_VIDEO_PIXELS
+                        && (best == null || pixels > best.getWidth() * best.getHeight())) {
+                    best = size;
+                }
+            }
+            return best != null ? best : smallest;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * @return A {@code CameraCharacteristics.LENS_FACING_*}, or -1 if unknown.
+         */
+        public int getFacing() {
+            return mFacing;
+        }
+
+        /**
+         * @return The clockwise rotation of the sensor, in degrees.
+         */
+        public int getSensorOrientation() {
+            return mSensorOrientation;
+        }
+
+        public float getMaxZoom() {
+            return mMaxZoom;
+        }
+
+        /**
+         * @return The sizes the camera can preview to a {@link SurfaceTexture} at.
+         */
+        public Size[] getPreviewSizes() {
+            return mPreviewSizes.clone();
+        }
+
+        /**
+         * @return The frame rate ranges of the camera, or null if unknown.
+         */
+        public Range<Integer>[] getFpsRanges() {
+            return mFpsRanges != null ? mFpsRanges.clone() : null;
+        }
+
+        /**
+         * @return The aspect ratio (width / height) of the preview size a video call is likely
+         *         to use. The video provider reports the actual one once the camera is set.
+         */
+        public float getVideoAspectRatio() {
+            if (mVideoSize == null || mVideoSize.getHeight() == 0) {
+                return 1.0f;
+            }
+            return (float) mVideoSize.getWidth() / mVideoSize.getHeight();
+        }
+
+        @Override
+        public String toString() {
+            return "CameraInfo{id=" + mId + " facing=" + mFacing + " orientation="
+                    + mSensorOrientation + " maxZoom=" + mMaxZoom + " videoSize=" + mVideoSize
+                    + " previewSizes=" + Arrays.toString(mPreviewSizes)
+                    + " fpsRanges=" + Arrays.toString(mFpsRanges) + "}";
+        }
+    }
+
+    private static CameraCapabilityRegistry sInstance;
+
+    private final Context mContext;
+    /** The cameras, or null until they are read. Replaced, never modified. */
+    private volatile List<CameraInfo> mCameras;
+    private boolean mLoadStarted;
+    /** When reading the cameras last failed, or 0. Guarded by this. */
+    private long mFailedLoadTimeMs;
+
+    public static synchronized CameraCapabilityRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CameraCapabilityRegistry(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CameraCapabilityRegistry(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Starts reading the capabilities of the cameras on a background thread, unless they were
+     * read already.
+     */
+    public synchronized void loadAsync() {
+        if (mCameras != null || mLoadStarted) {
+            return;
+        }
+        mLoadStarted = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getCameras();
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * @param facing A {@code CameraCharacteristics.LENS_FACING_*}.
+     * @return The first camera facing the given way, or null if there is none.
+     */
+    public CameraInfo getCamera(int facing) {
+        for (CameraInfo camera : getCameras()) {
+            if (camera.getFacing() == facing) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The cameras of the device, reading them on the calling thread if they haven't been
+     *         read yet.
+     */
+    public List<CameraInfo> getCameras() {
+        final List<CameraInfo> cameras = mCameras;
+        if (cameras != null) {
+            return cameras;
+        }
+        return load();
+    }
+
+    private synchronized List<CameraInfo> load() {
+        if (mCameras != null) {
+            // Read by another thread while this one waited.
+            return mCameras;
+        }
+        if (mFailedLoadTimeMs != 0
+                && SystemClock.elapsedRealtime() - mFailedLoadTimeMs < FAILED_LOAD_RETRY_MS) {
+            return Collections.emptyList();
+        }
+        Log.d(this, "Reading camera capabilities");
+
+        final CameraManager cameraManager =
+                (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        if (cameraManager == null) {
+            Log.e(this, "Could not get camera service.");
+            return Collections.emptyList();
+        }
+
+        final String[] cameraIds;
+        try {
+            cameraIds = cameraManager.getCameraIdList();
+        } catch (CameraAccessException e) {
+            // Camera disabled by device policy. Only kept for a while, the policy may change.
+            Log.d(this, "Could not access camera: " + e);
+            return onLoadFailed();
+        }
+
+        final List<CameraInfo> cameras = Lists.newArrayListWithCapacity(cameraIds.length);
+        for (String cameraId : cameraIds) {
+            try {
+                cameras.add(new CameraInfo(cameraId,
+                        cameraManager.getCameraCharacteristics(cameraId)));
+            } catch (IllegalArgumentException e) {
+                // Device Id is unknown.
+            } catch (CameraAccessException e) {
+                // Camera disabled by device policy. Only kept for a while, the policy may change.
+                Log.d(this, "Could not access camera " + cameraId + ": " + e);
+                return onLoadFailed();
+            }
+        }
+        mFailedLoadTimeMs = 0;
+        mCameras = Collections.unmodifiableList(cameras);
+        return mCameras;
+    }
+
+    /**
+     * Keeps the failure for a while, and lets the next {@link #loadAsync} try again.
+     */
+    private List<CameraInfo> onLoadFailed() {
+        mFailedLoadTimeMs = SystemClock.elapsedRealtime();
+        mLoadStarted = false;
+        return Collections.emptyList();
+    }
+
+    public void dump(PrintWriter pw) {
+        final List<CameraInfo> cameras = mCameras;
+        pw.println("CameraCapabilityRegistry:");
+        if (cameras == null) {
+            pw.println("  not loaded");
+            return;
+        }
+        for (CameraInfo camera : cameras) {
+            pw.println("  " + camera);
+        }
+    }
+}
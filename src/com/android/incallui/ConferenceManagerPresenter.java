@@ -56,15 +56,16 @@ public class ConferenceManagerPresenter
     }
 
     @Override
-    public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
+    public void onStateChange(InCallState oldState, InCallState newState,
+            CallListSnapshot snapshot) {
         if (getUi().isFragmentVisible()) {
             Log.v(this, "onStateChange" + newState);
             if (newState == InCallState.INCALL) {
-                final Call call = callList.getActiveOrBackgroundCall();
+                final Call call = snapshot.getActiveOrBackgroundCall();
                 if (call != null && call.isConferenceCall()) {
                     Log.v(this, "Number of existing calls is " +
                             String.valueOf(call.getChildCallIds().size()));
-                    update(callList);
+                    update(CallList.getInstance());
                 } else {
                     getUi().setVisible(false);
                 }
@@ -30,6 +30,7 @@ import android.widget.TextView;
 
 import com.android.contacts.common.ContactPhotoManager;
 import com.android.contacts.common.ContactPhotoManager.DefaultImageRequest;
+import com.android.contacts.common.util.PhoneNumberHelper;
 import com.android.incallui.ContactInfoCache.ContactCacheEntry;
 
 import java.lang.ref.WeakReference;
@@ -420,12 +421,24 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
             numberTypeTextView.setVisibility(View.GONE);
         } else {
             numberTextView.setVisibility(View.VISIBLE);
-            numberTextView.setText(callerNumber);
+            numberTextView.setText(formatNumber(callerNumber));
             numberTypeTextView.setVisibility(View.VISIBLE);
             numberTypeTextView.setText(callerNumberType);
         }
     }
 
+    /**
+     * Formats a participant's number for display, unless it is a SIP address.
+     */
+    private String formatNumber(String number) {
+        if (PhoneNumberHelper.isUriNumber(number)) {
+            return number;
+        }
+        final String formatted = NumberIntelligence.getInstance(mContext).formatNumber(number,
+                null);
+        return TextUtils.isEmpty(formatted) ? number : formatted;
+    }
+
     /**
      * Updates the participant info list which is bound to the ListView.  Stores the call and
      * contact info for all entries.  The list is sorted alphabetically by participant name.
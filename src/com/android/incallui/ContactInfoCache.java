@@ -49,11 +49,18 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     private static final String TAG = ContactInfoCache.class.getSimpleName();
     private static final int TOKEN_UPDATE_PHOTO_FOR_CALL_STATE = 0;
+    private static final int TOKEN_UPDATE_PHOTO_FROM_SNAPSHOT = 1;
 
     private final Context mContext;
     private final PhoneNumberService mPhoneNumberService;
     private final HashMap<String, ContactCacheEntry> mInfoMap = Maps.newHashMap();
     private final HashMap<String, Set<ContactInfoCacheCallback>> mCallBacks = Maps.newHashMap();
+    /** Number cache keys of the lookups in flight, by call id. */
+    private final HashMap<String, String> mNumberKeys = Maps.newHashMap();
+    private final ContactInfoNumberCache mNumberCache;
+    private final CallerIdSnapshot mCallerIdSnapshot;
+    /** Ids of the calls whose entry was filled in from the caller id snapshot. */
+    private final Set<String> mSnapshotCallIds = Sets.newHashSet();
 
     private static ContactInfoCache sCache = null;
 
@@ -67,6 +74,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     private ContactInfoCache(Context context) {
         mContext = context;
         mPhoneNumberService = ServiceFactory.newPhoneNumberService(context);
+        mNumberCache = new ContactInfoNumberCache(context);
+        mCallerIdSnapshot = CallerIdSnapshot.getInstance(context);
     }
 
     public ContactCacheEntry getInfo(String callId) {
@@ -93,7 +102,10 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
         @Override
         public void onQueryComplete(int token, Object cookie, CallerInfo callerInfo) {
-            findInfoQueryComplete((Call) cookie, callerInfo, mIsIncoming, true);
+            final Call call = (Call) cookie;
+            CallLatencyTracer.getInstance().end(call.getId(),
+                    CallLatencyTracer.SPAN_CALLER_INFO_QUERY);
+            findInfoQueryComplete(call, callerInfo, mIsIncoming, true);
         }
     }
 
@@ -112,6 +124,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         final String callId = call.getId();
         final ContactCacheEntry cacheEntry = mInfoMap.get(callId);
         Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
+        final CallLatencyTracer tracer = CallLatencyTracer.getInstance();
+        tracer.begin(callId, CallLatencyTracer.SPAN_CONTACT_LOOKUP);
 
         // If we have a previously obtained intermediate result return that now
         if (cacheEntry != null) {
@@ -120,6 +134,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             callback.onContactInfoComplete(callId, cacheEntry);
             // If no other callbacks are in flight, we're done.
             if (callBacks == null) {
+                tracer.end(callId, CallLatencyTracer.SPAN_CONTACT_LOOKUP);
                 return;
             }
         }
@@ -129,11 +144,28 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             callBacks.add(callback);
             return;
         }
+        // A previous call with the same number may already have done the whole lookup.
+        final String numberKey = ContactInfoNumberCache.getKey(call);
+        final ContactCacheEntry numberCacheEntry = mNumberCache.get(numberKey);
+        if (numberCacheEntry != null) {
+            Log.d(TAG, "Contact lookup. Number cache hit; lookup complete");
+            tracer.end(callId, CallLatencyTracer.SPAN_CONTACT_LOOKUP);
+            mInfoMap.put(callId, numberCacheEntry);
+            callback.onContactInfoComplete(callId, numberCacheEntry);
+            if (numberCacheEntry.photo != null) {
+                callback.onImageLoadComplete(callId, numberCacheEntry);
+            }
+            return;
+        }
+
         Log.d(TAG, "Contact lookup. In memory cache miss; searching provider.");
         // New lookup
         callBacks = Sets.newHashSet();
         callBacks.add(callback);
         mCallBacks.put(callId, callBacks);
+        if (numberKey != null) {
+            mNumberKeys.put(callId, numberKey);
+        }
 
         /**
          * Performs a query for caller information.
@@ -145,6 +177,10 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                 mContext, call, new FindInfoCallback(isIncoming));
 
         findInfoQueryComplete(call, callerInfo, isIncoming, false);
+        if (callerInfo.numberPresentation != TelecomManager.PRESENTATION_ALLOWED) {
+            // No query was started; this is all there is to show.
+            tracer.end(callId, CallLatencyTracer.SPAN_CONTACT_LOOKUP);
+        }
     }
 
     private void findInfoQueryComplete(Call call, CallerInfo callerInfo, boolean isIncoming,
@@ -157,19 +193,26 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         }
 
         ContactCacheEntry cacheEntry = mInfoMap.get(callId);
+        final boolean fromSnapshot = mSnapshotCallIds.remove(callId);
         // Rebuild the entry from the new data if:
         // 1) This is NOT the asynchronous local lookup (IOW, this is the first pass)
         // 2) The local lookup was done and the contact exists
         // 3) The existing cached entry is empty (no name).
+        // 4) The existing cached entry was guessed from the caller id snapshot.
         if (!didLocalLookup || callerInfo.contactExists ||
-                (cacheEntry != null && TextUtils.isEmpty(cacheEntry.name))) {
+                (cacheEntry != null && TextUtils.isEmpty(cacheEntry.name)) || fromSnapshot) {
             cacheEntry = buildEntry(mContext, callId, callerInfo, presentationMode, isIncoming);
+            if (!didLocalLookup && presentationMode == TelecomManager.PRESENTATION_ALLOWED
+                    && !callerInfo.contactExists) {
+                applyCallerIdSnapshot(call, cacheEntry);
+            }
             mInfoMap.put(callId, cacheEntry);
         }
 
         sendInfoNotifications(callId, cacheEntry);
 
         if (didLocalLookup) {
+            CallLatencyTracer.getInstance().end(callId, CallLatencyTracer.SPAN_CONTACT_LOOKUP);
             // Before issuing a request for more data from other services, We only check that the
             // contact wasn't found in the local DB.  We don't check the if the cache entry already
             // has a name because we allow overriding cnap data with data from other services.
@@ -182,8 +225,10 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                 Log.d(TAG, "Contact lookup. Local contact found, starting image load");
                 // Load the image with a callback to update the image state.
                 // When the load is finished, onImageLoadComplete() will be called.
+                CallLatencyTracer.getInstance().begin(callId, CallLatencyTracer.SPAN_PHOTO_LOAD);
                 ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
-                        mContext, cacheEntry.displayPhotoUri, ContactInfoCache.this, callId);
+                        mContext, cacheEntry.displayPhotoUri, ContactInfoCache.this, callId,
+                        callId, getPhotoPriority(call));
             } else {
                 if (callerInfo.contactExists) {
                     Log.d(TAG, "Contact lookup done. Local contact found, no image.");
@@ -196,6 +241,46 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         }
     }
 
+    /**
+     * Fills in the name and label from the caller id snapshot so they can be shown before the
+     * asynchronous query completes, and starts loading the thumbnail of the contact. The query
+     * result replaces them either way.
+     */
+    private void applyCallerIdSnapshot(Call call, ContactCacheEntry entry) {
+        final String callId = call.getId();
+        final CallerIdSnapshot.Record record = mCallerIdSnapshot.lookup(call.getNumber());
+        if (record == null || TextUtils.isEmpty(record.name)) {
+            return;
+        }
+        Log.d(TAG, "Contact lookup. Caller id snapshot hit");
+        entry.name = record.name;
+        entry.label = record.label;
+        entry.lookupKey = record.lookupKey;
+        mSnapshotCallIds.add(callId);
+
+        final Uri photoUri = record.getPhotoUri();
+        if (photoUri != null) {
+            ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FROM_SNAPSHOT,
+                    mContext, photoUri, ContactInfoCache.this, callId, callId,
+                    getPhotoPriority(call));
+        }
+    }
+
+    /**
+     * Picks the photo load lane for a call: the call shown in the call card first, conference
+     * participants last.
+     */
+    private static int getPhotoPriority(Call call) {
+        final Call primaryCall = InCallPresenter.getInstance().getCallListSnapshot()
+                .getPrimaryCall();
+        if (primaryCall != null && primaryCall.getId().equals(call.getId())) {
+            return ContactsAsyncHelper.PRIORITY_PRIMARY_CALL;
+        } else if (call.getParentId() != null) {
+            return ContactsAsyncHelper.PRIORITY_CONFERENCE_PARTICIPANT;
+        }
+        return ContactsAsyncHelper.PRIORITY_SECONDARY_CALL;
+    }
+
     class PhoneNumberServiceListener implements PhoneNumberService.NumberLookupListener,
                                      PhoneNumberService.ImageLookupListener {
         private final String mCallId;
@@ -271,6 +356,18 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
         final String callId = (String) cookie;
         final ContactCacheEntry entry = mInfoMap.get(callId);
+        if (token == TOKEN_UPDATE_PHOTO_FROM_SNAPSHOT) {
+            // The lookup goes on, unless the query result replaced the entry already.
+            if (entry != null && mSnapshotCallIds.contains(callId)
+                    && (photo != null || photoIcon != null)) {
+                entry.photoIcon = photoIcon;
+                entry.photo = photo != null ? photo
+                        : new BitmapDrawable(mContext.getResources(), photoIcon);
+                sendImageNotifications(callId, entry);
+            }
+            return;
+        }
+        CallLatencyTracer.getInstance().end(callId, CallLatencyTracer.SPAN_PHOTO_LOAD);
 
         if (entry == null) {
             Log.e(this, "Image Load received for empty search entry.");
@@ -280,6 +377,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         Log.d(this, "setting photo for entry: ", entry);
 
         // Conference call icons are being handled in CallCardPresenter.
+        entry.photoIcon = photoIcon;
         if (photo != null) {
             Log.v(this, "direct drawable: ", photo);
             entry.photo = photo;
@@ -296,11 +394,14 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     }
 
     /**
-     * Blows away the stored cache values.
+     * Blows away the stored cache values. Completed lookups remain in the number cache so they
+     * can be reused by later calls from the same number.
      */
     public void clearCache() {
         mInfoMap.clear();
         mCallBacks.clear();
+        mNumberKeys.clear();
+        mSnapshotCallIds.clear();
     }
 
     private ContactCacheEntry buildEntry(Context context, String callId,
@@ -478,8 +579,20 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         }
     }
 
+    /**
+     * Called when the lookup for the call has finished, successfully or not.
+     */
     private void clearCallbacks(String callId) {
         mCallBacks.remove(callId);
+        mSnapshotCallIds.remove(callId);
+
+        final String numberKey = mNumberKeys.remove(callId);
+        final ContactCacheEntry entry = mInfoMap.get(callId);
+        // Don't cache entries whose photo failed to load, so the next call tries again.
+        if (numberKey != null && entry != null
+                && (entry.photo != null || entry.displayPhotoUri == null)) {
+            mNumberCache.put(numberKey, entry);
+        }
     }
 
     /**
@@ -509,6 +622,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         public String location;
         public String label;
         public Drawable photo;
+        /** Notification sized rendition of the photo, if it was loaded with one. */
+        public Bitmap photoIcon;
         public boolean isSipCall;
         /** This will be used for the "view" notification. */
         public Uri contactUri;
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Second level cache for {@link ContactInfoCache}, keyed by the normalized number and the number
+ * presentation instead of by call id. It outlives individual calls so that a call back or redial
+ * of a recent number does not have to query the contacts provider and decode the photo again.
+ *
+ * The cache is bounded by number of entries and by the bytes of the cached photos, evicting the
+ * least recently used entries first. Entries expire after {@link #ENTRY_TTL_MS}, and the whole
+ * cache is dropped whenever the contacts provider reports a change.
+ *
+ * Only accessed from the main thread.
+ */
+class ContactInfoNumberCache {
+
+    private static final String TAG = ContactInfoNumberCache.class.getSimpleName();
+
+    private static final int MAX_ENTRIES = 32;
+    private static final int MAX_PHOTO_BYTES = 4 * 1024 * 1024;
+    private static final long ENTRY_TTL_MS = 10 * 60 * 1000;
+
+    private static class CachedEntry {
+        final ContactCacheEntry entry;
+        final long createdAtMs;
+        final int photoBytes;
+
+        CachedEntry(ContactCacheEntry entry, long createdAtMs, int photoBytes) {
+            this.entry = entry;
+            this.createdAtMs = createdAtMs;
+            this.photoBytes = photoBytes;
+        }
+    }
+
+    /** Access ordered, so iteration starts at the least recently used entry. */
+    private final LinkedHashMap<String, CachedEntry> mEntries =
+            new LinkedHashMap<String, CachedEntry>(MAX_ENTRIES, 0.75f, true);
+    private int mPhotoBytes;
+
+    private final ContentObserver mContactsObserver =
+            new ContentObserver(new Handler(Looper.getMainLooper())) {
+        @Override
+        public void onChange(boolean selfChange) {
+            Log.d(TAG, "Contacts changed, dropping " + mEntries.size() + " entries");
+            clear();
+        }
+    };
+
+    ContactInfoNumberCache(Context context) {
+        context.getContentResolver().registerContentObserver(
+                ContactsContract.Contacts.CONTENT_URI, true, mContactsObserver);
+    }
+
+    /**
+     * Builds the cache key for a call, or returns {@code null} if the call has no number that
+     * can be cached.
+     */
+    static String getKey(Call call) {
+        final String number = call.getNumber();
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        final String normalized = PhoneNumberHelper.isUriNumber(number)
+                ? number.toLowerCase() : PhoneNumberUtils.normalizeNumber(number);
+        if (TextUtils.isEmpty(normalized)) {
+            return null;
+        }
+        return normalized + "|" + call.getNumberPresentation();
+    }
+
+    /**
+     * Returns a copy of the cached entry for the key, or {@code null} if there is none or it has
+     * expired.
+     */
+    ContactCacheEntry get(String key) {
+        if (key == null) {
+            return null;
+        }
+        final CachedEntry cached = mEntries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - cached.createdAtMs > ENTRY_TTL_MS) {
+            remove(key);
+            return null;
+        }
+        return copyOf(cached.entry);
+    }
+
+    /**
+     * Stores a copy of a completed lookup result.
+     */
+    void put(String key, ContactCacheEntry entry) {
+        if (key == null || entry == null) {
+            return;
+        }
+        final int photoBytes = getPhotoBytes(entry.photo)
+                + (entry.photoIcon != null ? entry.photoIcon.getByteCount() : 0);
+        if (photoBytes > MAX_PHOTO_BYTES) {
+            return;
+        }
+
+        remove(key);
+        mEntries.put(key, new CachedEntry(copyOf(entry), SystemClock.elapsedRealtime(),
+                photoBytes));
+        mPhotoBytes += photoBytes;
+        trim();
+    }
+
+    void clear() {
+        mEntries.clear();
+        mPhotoBytes = 0;
+    }
+
+    private void remove(String key) {
+        final CachedEntry removed = mEntries.remove(key);
+        if (removed != null) {
+            mPhotoBytes -= removed.photoBytes;
+        }
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, CachedEntry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext() && (mEntries.size() > MAX_ENTRIES || mPhotoBytes > MAX_PHOTO_BYTES)) {
+            mPhotoBytes -= it.next().getValue().photoBytes;
+            it.remove();
+        }
+    }
+
+    private static int getPhotoBytes(Drawable photo) {
+        if (photo instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) photo).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getByteCount();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Copies an entry. The photo drawable gets its own instance (sharing the underlying bitmap)
+     * since the same drawable cannot safely be shown by several views at once.
+     */
+    private static ContactCacheEntry copyOf(ContactCacheEntry entry) {
+        final ContactCacheEntry copy = new ContactCacheEntry();
+        copy.name = entry.name;
+        copy.number = entry.number;
+        copy.location = entry.location;
+        copy.label = entry.label;
+        copy.isSipCall = entry.isSipCall;
+        copy.contactUri = entry.contactUri;
+        copy.displayPhotoUri = entry.displayPhotoUri;
+        copy.lookupUri = entry.lookupUri;
+        copy.lookupKey = entry.lookupKey;
+        copy.photoIcon = entry.photoIcon;
+        if (entry.photo != null) {
+            final Drawable.ConstantState state = entry.photo.getConstantState();
+            copy.photo = state != null ? state.newDrawable() : entry.photo;
+        }
+        return copy;
+    }
+}
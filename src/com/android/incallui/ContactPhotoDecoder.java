@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Decodes contact photos at the sizes they are displayed at: the call card photo, which covers
+ * at most the screen, and the notification icon. Both are produced from a single decode.
+ *
+ * The photo is first decoded with the largest power of two sample size that still covers the
+ * screen. If that is still much larger than needed, it is decoded into a scratch bitmap taken
+ * from a small pool and scaled down from there, so the oversized intermediate is reused by the
+ * next decode instead of being allocated every time.
+ *
+ * Thread safe.
+ */
+class ContactPhotoDecoder {
+
+    private static final String TAG = ContactPhotoDecoder.class.getSimpleName();
+
+    /**
+     * Scale the sampled photo down once it is this much larger than needed; below that the
+     * extra copy costs more than it saves.
+     */
+    private static final float MAX_OVERSIZE = 1.5f;
+
+    /** Upper bound for the scratch bitmaps kept around between decodes. */
+    private static final int MAX_POOL_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The renditions of a photo.
+     */
+    static class Result {
+        /** The photo for the call card. */
+        final Bitmap photo;
+        /** Square, center cropped icon for the notification. */
+        final Bitmap icon;
+
+        Result(Bitmap photo, Bitmap icon) {
+            this.photo = photo;
+            this.icon = icon;
+        }
+    }
+
+    private static final ArrayList<Bitmap> sPool = new ArrayList<Bitmap>();
+    private static int sPoolBytes;
+
+    private ContactPhotoDecoder() {
+    }
+
+    /**
+     * Decodes the photo at the uri.
+     *
+     * @return The renditions of the photo, or {@code null} if it could not be decoded.
+     */
+    static Result decode(Context context, Uri uri) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!decodeBounds(context, uri, options) || options.outWidth <= 0
+                || options.outHeight <= 0) {
+            return null;
+        }
+
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        final int targetWidth = Math.min(width, metrics.widthPixels);
+        final int targetHeight = Math.min(height, metrics.heightPixels);
+        final int sampleSize = getSampleSize(width, height, targetWidth, targetHeight);
+        final int sampledWidth = width / sampleSize;
+        final int sampledHeight = height / sampleSize;
+        final boolean needsScaling =
+                getCoverScale(sampledWidth, sampledHeight, targetWidth, targetHeight)
+                        * MAX_OVERSIZE < 1f;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inBitmap = needsScaling
+                ? takeFromPool(sampledWidth * sampledHeight * 4) : null;
+
+        Bitmap sampled = decodeBitmap(context, uri, options);
+        if (sampled == null && options.inBitmap != null) {
+            // The pooled bitmap could not be reused for this photo; try again without it.
+            returnToPool(options.inBitmap);
+            options.inBitmap = null;
+            sampled = decodeBitmap(context, uri, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+
+        Bitmap photo = sampled;
+        if (needsScaling) {
+            final float scale = getCoverScale(sampled.getWidth(), sampled.getHeight(),
+                    targetWidth, targetHeight);
+            photo = Bitmap.createScaledBitmap(sampled, Math.round(sampled.getWidth() * scale),
+                    Math.round(sampled.getHeight() * scale), true);
+        }
+
+        final int iconSize = context.getResources()
+                .getDimensionPixelSize(R.dimen.notification_icon_size);
+        final Bitmap icon = createIcon(photo, iconSize);
+
+        if (photo != sampled) {
+            returnToPool(sampled);
+        }
+
+        Log.d(TAG, "Decoded " + width + "x" + height + " photo at "
+                + photo.getWidth() + "x" + photo.getHeight() + ", sample size " + sampleSize);
+        return new Result(photo, icon);
+    }
+
+    /**
+     * Returns the largest power of two sample size which keeps the decoded photo at least as
+     * large as the target in both dimensions.
+     */
+    private static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth
+                && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns the scale at which the photo just covers the target. The photo is shown center
+     * cropped, so it needs to cover the target in both dimensions.
+     */
+    private static float getCoverScale(int width, int height, int targetWidth,
+            int targetHeight) {
+        return Math.max((float) targetWidth / width, (float) targetHeight / height);
+    }
+
+    /**
+     * Creates a square, center cropped copy of the photo with the given size.
+     */
+    private static Bitmap createIcon(Bitmap photo, int size) {
+        final int width = photo.getWidth();
+        final int height = photo.getHeight();
+        final int edge = Math.min(width, height);
+        if (edge <= 0 || size <= 0) {
+            return null;
+        }
+        final int left = (width - edge) / 2;
+        final int top = (height - edge) / 2;
+
+        final Bitmap icon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(icon);
+        canvas.drawBitmap(photo, new Rect(left, top, left + edge, top + edge),
+                new Rect(0, 0, size, size), new Paint(Paint.FILTER_BITMAP_FLAG));
+        canvas.setBitmap(null);
+        return icon;
+    }
+
+    private static boolean decodeBounds(Context context, Uri uri, BitmapFactory.Options options) {
+        final InputStream inputStream = openInputStream(context, uri);
+        if (inputStream == null) {
+            return false;
+        }
+        try {
+            BitmapFactory.decodeStream(inputStream, null, options);
+            return true;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static Bitmap decodeBitmap(Context context, Uri uri, BitmapFactory.Options options) {
+        final InputStream inputStream = openInputStream(context, uri);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } catch (IllegalArgumentException e) {
+            // Thrown when options.inBitmap can't be reused.
+            Log.d(TAG, "Unable to reuse bitmap: " + e);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static InputStream openInputStream(Context context, Uri uri) {
+        try {
+            return context.getContentResolver().openInputStream(uri);
+        } catch (Exception e) {
+            Log.e(TAG, "Error opening photo input stream", e);
+            return null;
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close input stream.", e);
+        }
+    }
+
+    /**
+     * Takes the smallest pooled bitmap with room for the given number of bytes.
+     */
+    private static synchronized Bitmap takeFromPool(int byteCount) {
+        Bitmap best = null;
+        for (Bitmap bitmap : sPool) {
+            final int allocated = bitmap.getAllocationByteCount();
+            if (allocated >= byteCount
+                    && (best == null || allocated < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best != null) {
+            sPool.remove(best);
+            sPoolBytes -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    /**
+     * Returns a bitmap that is no longer referenced anywhere else to the pool, evicting the
+     * oldest bitmaps if the pool grows too large.
+     */
+    private static synchronized void returnToPool(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.getAllocationByteCount() > MAX_POOL_BYTES) {
+            return;
+        }
+        sPool.add(bitmap);
+        sPoolBytes += bitmap.getAllocationByteCount();
+        while (sPoolBytes > MAX_POOL_BYTES) {
+            sPoolBytes -= sPool.remove(0).getAllocationByteCount();
+        }
+    }
+}
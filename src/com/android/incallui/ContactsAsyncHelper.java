@@ -16,25 +16,37 @@
 
 package com.android.incallui;
 
-import android.app.Notification;
-import android.content.ContentUris;
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
-import android.provider.ContactsContract.Contacts;
+import android.os.Process;
 
-import java.io.IOException;
-import java.io.InputStream;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Helper class for loading contacts photo asynchronously.
+ *
+ * Photos are loaded by a small pool of worker threads. Pending loads are ordered by priority
+ * lane, so the photo of the primary call is not stuck behind those of the conference
+ * participants, and then by age. Requests for a photo which is already being loaded share that
+ * load, and the requests for a call are cancelled when the call is removed.
+ *
+ * Requests are made, cancelled and completed on the main thread.
  */
 public class ContactsAsyncHelper {
 
@@ -57,142 +69,105 @@ public class ContactsAsyncHelper {
                 Object cookie);
     }
 
+    /** Priority lanes, from the most to the least urgent. */
+    public static final int PRIORITY_PRIMARY_CALL = 0;
+    public static final int PRIORITY_SECONDARY_CALL = 1;
+    public static final int PRIORITY_CONFERENCE_PARTICIPANT = 2;
+
     // constants
-    private static final int EVENT_LOAD_IMAGE = 1;
+    private static final int EVENT_LOAD_COMPLETE = 1;
+    private static final int EVENT_LOAD_CANCELLED = 2;
 
-    private final Handler mResultHandler = new Handler() {
+    private static final int WORKER_COUNT = 2;
+
+    private final Handler mResultHandler = new Handler(Looper.getMainLooper()) {
         /** Called when loading is done. */
         @Override
         public void handleMessage(Message msg) {
-            WorkerArgs args = (WorkerArgs) msg.obj;
-            switch (msg.arg1) {
-                case EVENT_LOAD_IMAGE:
-                    if (args.listener != null) {
-                        Log.d(this, "Notifying listener: " + args.listener.toString() +
-                                " image: " + args.displayPhotoUri + " completed");
-                        args.listener.onImageLoadComplete(msg.what, args.photo, args.photoIcon,
-                                args.cookie);
-                    }
+            switch (msg.what) {
+                case EVENT_LOAD_COMPLETE:
+                    onLoadComplete((LoadTask) msg.obj);
+                    break;
+                case EVENT_LOAD_CANCELLED:
+                    // Let the listener clean up as it would after a failed load.
+                    notifyListener((Request) msg.obj, null, null);
                     break;
                 default:
             }
         }
     };
 
-    /** Handler run on a worker thread to load photo asynchronously. */
-    private static Handler sThreadHandler;
+    private final ThreadPoolExecutor mExecutor;
+
+    /** Loads which are queued or running, by photo uri. */
+    private final HashMap<Uri, LoadTask> mTasksByUri = Maps.newHashMap();
+
+    /** Orders loads within a priority lane. */
+    private long mNextSequence;
 
-    /** For forcing the system to call its constructor */
-    @SuppressWarnings("unused")
     private static ContactsAsyncHelper sInstance;
 
     static {
         sInstance = new ContactsAsyncHelper();
     }
 
-    private static final class WorkerArgs {
-        public Context context;
-        public Uri displayPhotoUri;
-        public Drawable photo;
-        public Bitmap photoIcon;
+    /**
+     * A caller waiting for a photo.
+     */
+    private static final class Request {
+        public int token;
+        public String callId;
         public Object cookie;
         public OnImageLoadCompleteListener listener;
     }
 
     /**
-     * Thread worker class that handles the task of opening the stream and loading
-     * the images.
+     * The load of one photo, shared by all the requests for it.
      */
-    private class WorkerHandler extends Handler {
-        public WorkerHandler(Looper looper) {
-            super(looper);
+    private final class LoadTask implements Runnable, Comparable<LoadTask> {
+        public final Context context;
+        public final Uri displayPhotoUri;
+        /** Only changed while the task is not queued. */
+        public int priority;
+        public final long sequence;
+        /** Only accessed on the main thread. */
+        public final ArrayList<Request> requests = new ArrayList<Request>(1);
+
+        /** Set by the worker thread before the task is handed back to the main thread. */
+        public Drawable photo;
+        public Bitmap photoIcon;
+
+        LoadTask(Context context, Uri displayPhotoUri, int priority, long sequence) {
+            this.context = context;
+            this.displayPhotoUri = displayPhotoUri;
+            this.priority = priority;
+            this.sequence = sequence;
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            WorkerArgs args = (WorkerArgs) msg.obj;
-
-            switch (msg.arg1) {
-                case EVENT_LOAD_IMAGE:
-                    InputStream inputStream = null;
-                    try {
-                        try {
-                            inputStream = args.context.getContentResolver()
-                                    .openInputStream(args.displayPhotoUri);
-                        } catch (Exception e) {
-                            Log.e(this, "Error opening photo input stream", e);
-                        }
-
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.displayPhotoUri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
-
-                            Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri);
-                        } else {
-                            args.photo = null;
-                            args.photoIcon = null;
-                            Log.d(ContactsAsyncHelper.this, "Problem with image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri +
-                                    ", using default image.");
-                        }
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                Log.e(this, "Unable to close input stream.", e);
-                            }
-                        }
-                    }
-                    break;
-                default:
+        public void run() {
+            final ContactPhotoDecoder.Result result =
+                    ContactPhotoDecoder.decode(context, displayPhotoUri);
+            if (result != null) {
+                photo = new BitmapDrawable(context.getResources(), result.photo);
+                photoIcon = result.icon;
+                Log.d(ContactsAsyncHelper.this, "Loading image: " + displayPhotoUri
+                        + " priority: " + priority);
+            } else {
+                Log.d(ContactsAsyncHelper.this, "Problem with image: " + displayPhotoUri
+                        + ", using default image.");
             }
 
             // send the reply to the enclosing class.
-            Message reply = ContactsAsyncHelper.this.mResultHandler.obtainMessage(msg.what);
-            reply.arg1 = msg.arg1;
-            reply.obj = msg.obj;
-            reply.sendToTarget();
+            mResultHandler.obtainMessage(EVENT_LOAD_COMPLETE, this).sendToTarget();
         }
 
-        /**
-         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
-         * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
-         * create a scaled Bitmap for the Drawable.
-         */
-        private Bitmap getPhotoIconWhenAppropriate(Context context, Drawable photo) {
-            if (!(photo instanceof BitmapDrawable)) {
-                return null;
-            }
-            int iconSize = context.getResources()
-                    .getDimensionPixelSize(R.dimen.notification_icon_size);
-            Bitmap orgBitmap = ((BitmapDrawable) photo).getBitmap();
-            int orgWidth = orgBitmap.getWidth();
-            int orgHeight = orgBitmap.getHeight();
-            int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
-            // We want downscaled one only when the original icon is too big.
-            if (longerEdge > iconSize) {
-                float ratio = ((float) longerEdge) / iconSize;
-                int newWidth = (int) (orgWidth / ratio);
-                int newHeight = (int) (orgHeight / ratio);
-                // If the longer edge is much longer than the shorter edge, the latter may
-                // become 0 which will cause a crash.
-                if (newWidth <= 0 || newHeight <= 0) {
-                    Log.w(this, "Photo icon's width or height become 0.");
-                    return null;
-                }
-
-                // It is sure ratio >= 1.0f in any case and thus the newly created Bitmap
-                // should be smaller than the original.
-                return Bitmap.createScaledBitmap(orgBitmap, newWidth, newHeight, true);
-            } else {
-                return orgBitmap;
+        @Override
+        public int compareTo(LoadTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
             }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
         }
     }
 
@@ -200,9 +175,21 @@ public class ContactsAsyncHelper {
      * Private constructor for static class
      */
     private ContactsAsyncHelper() {
-        HandlerThread thread = new HandlerThread("ContactsAsyncWorker");
-        thread.start();
-        sThreadHandler = new WorkerHandler(thread.getLooper());
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ContactsAsyncWorker-" + threadCount.incrementAndGet());
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), threadFactory);
     }
 
     /**
@@ -223,6 +210,22 @@ public class ContactsAsyncHelper {
      */
     public static final void startObtainPhotoAsync(int token, Context context, Uri displayPhotoUri,
             OnImageLoadCompleteListener listener, Object cookie) {
+        startObtainPhotoAsync(token, context, displayPhotoUri, listener, cookie, null,
+                PRIORITY_SECONDARY_CALL);
+    }
+
+    /**
+     * Starts an asynchronous image load for a call.
+     *
+     * @param callId The id of the call the photo is for. The load is cancelled when the call is
+     * removed, in which case the listener is called without a photo. Can be null.
+     * @param priority One of the {@code PRIORITY_*} lanes.
+     * @see #startObtainPhotoAsync(int, Context, Uri, OnImageLoadCompleteListener, Object)
+     */
+    public static final void startObtainPhotoAsync(int token, Context context, Uri displayPhotoUri,
+            OnImageLoadCompleteListener listener, Object cookie, String callId, int priority) {
+        Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
+
         // in case the source caller info is null, the URI will be null as well.
         // just update using the placeholder image in this case.
         if (displayPhotoUri == null) {
@@ -230,27 +233,82 @@ public class ContactsAsyncHelper {
             return;
         }
 
-        // Added additional Cookie field in the callee to handle arguments
-        // sent to the callback function.
+        final Request request = new Request();
+        request.token = token;
+        request.callId = callId;
+        request.cookie = cookie;
+        request.listener = listener;
 
-        // setup arguments
-        WorkerArgs args = new WorkerArgs();
-        args.cookie = cookie;
-        args.context = context;
-        args.displayPhotoUri = displayPhotoUri;
-        args.listener = listener;
+        sInstance.enqueue(context, displayPhotoUri, request, priority);
+    }
 
-        // setup message arguments
-        Message msg = sThreadHandler.obtainMessage(token);
-        msg.arg1 = EVENT_LOAD_IMAGE;
-        msg.obj = args;
+    /**
+     * Cancels the pending photo loads for a call. Their listeners are called without a photo.
+     */
+    public static final void cancelPhotoLoads(String callId) {
+        Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
+        sInstance.cancel(callId);
+    }
 
-        Log.d("startObjectPhotoAsync", "Begin loading image: " + args.displayPhotoUri +
-                ", displaying default image for now.");
+    private void enqueue(Context context, Uri displayPhotoUri, Request request, int priority) {
+        LoadTask task = mTasksByUri.get(displayPhotoUri);
+        if (task != null) {
+            Log.d(this, "Joining pending load of image: " + displayPhotoUri);
+            // Move the load to the more urgent lane, unless it is already running.
+            if (priority < task.priority && mExecutor.remove(task)) {
+                task.priority = priority;
+                mExecutor.execute(task);
+            }
+        } else {
+            Log.d(this, "Begin loading image: " + displayPhotoUri +
+                    ", displaying default image for now.");
+            task = new LoadTask(context, displayPhotoUri, priority, mNextSequence++);
+            mTasksByUri.put(displayPhotoUri, task);
+            mExecutor.execute(task);
+        }
+        task.requests.add(request);
+    }
 
-        // notify the thread to begin working
-        sThreadHandler.sendMessage(msg);
+    private void cancel(String callId) {
+        if (callId == null) {
+            return;
+        }
+        final Iterator<LoadTask> tasks = mTasksByUri.values().iterator();
+        while (tasks.hasNext()) {
+            final LoadTask task = tasks.next();
+            final Iterator<Request> requests = task.requests.iterator();
+            while (requests.hasNext()) {
+                final Request request = requests.next();
+                if (callId.equals(request.callId)) {
+                    requests.remove();
+                    mResultHandler.obtainMessage(EVENT_LOAD_CANCELLED, request).sendToTarget();
+                }
+            }
+            // Drop loads nobody is waiting for anymore. A load which is already running
+            // completes, but its result goes nowhere.
+            if (task.requests.isEmpty()) {
+                Log.d(this, "Cancelled load of image: " + task.displayPhotoUri);
+                mExecutor.remove(task);
+                tasks.remove();
+            }
+        }
     }
 
+    private void onLoadComplete(LoadTask task) {
+        if (mTasksByUri.get(task.displayPhotoUri) == task) {
+            mTasksByUri.remove(task.displayPhotoUri);
+        }
+        for (Request request : task.requests) {
+            notifyListener(request, task.photo, task.photoIcon);
+        }
+    }
 
+    private void notifyListener(Request request, Drawable photo, Bitmap photoIcon) {
+        if (request.listener != null) {
+            Log.d(this, "Notifying listener: " + request.listener.toString() +
+                    " for token: " + request.token + " completed");
+            request.listener.onImageLoadComplete(request.token, photo, photoIcon,
+                    request.cookie);
+        }
+    }
 }
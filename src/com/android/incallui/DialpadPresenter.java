@@ -29,7 +29,7 @@ public class DialpadPresenter extends Presenter<DialpadPresenter.DialpadUi>
     @Override
     public void onUiReady(DialpadUi ui) {
         super.onUiReady(ui);
-        InCallPresenter.getInstance().addListener(this);
+        InCallPresenter.getInstance().addListener(this, CallListSnapshot.CHANGE_CALL_STATE);
         mCall = CallList.getInstance().getOutgoingOrActive();
     }
 
@@ -41,8 +41,8 @@ public class DialpadPresenter extends Presenter<DialpadPresenter.DialpadUi>
 
     @Override
     public void onStateChange(InCallPresenter.InCallState oldState,
-            InCallPresenter.InCallState newState, CallList callList) {
-        mCall = callList.getOutgoingOrActive();
+            InCallPresenter.InCallState newState, CallListSnapshot snapshot) {
+        mCall = snapshot.getOutgoingOrActive();
         Log.d(this, "DialpadPresenter mCall = " + mCall);
     }
 
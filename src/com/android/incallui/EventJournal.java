@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+import android.text.format.DateFormat;
+
+import com.android.incallui.InCallPresenter.InCallState;
+
+import java.io.PrintWriter;
+
+/**
+ * Journal of the recent call state history, for post-mortems of dropped or stuck calls once
+ * logcat has long been truncated. Printed by {@link InCallServiceImpl}'s dump.
+ *
+ * Events are packed into a fixed-size ring buffer of longs: the monotonic time of the event and
+ * one word holding the event type, the number of the call it is about and two small arguments.
+ * Recording an event doesn't allocate, so the journal is always on. Events are only decoded
+ * into text when dumped.
+ */
+public class EventJournal {
+
+    /** The state of a call changed: the old and the new {@link Call.State}. */
+    public static final int EVENT_CALL_STATE = 1;
+    /** A call was added to {@link CallList}, in the given {@link Call.State}. */
+    public static final int EVENT_CALL_ADDED = 2;
+    /** A call was removed from {@link CallList}, in the given {@link Call.State}. */
+    public static final int EVENT_CALL_REMOVED = 3;
+    /** The {@link InCallState} changed: the ordinals of the old and the new state. */
+    public static final int EVENT_INCALL_STATE = 4;
+    /** A command was sent through {@link TelecomAdapter}: a {@code COMMAND_*} and its argument. */
+    public static final int EVENT_TELECOM_COMMAND = 5;
+    /**
+     * The session modification state of a video call changed: the new
+     * {@link Call.SessionModificationState} and the video state requested.
+     */
+    public static final int EVENT_VIDEO_SESSION = 6;
+
+    private static final String[] EVENT_NAMES = {
+        "?",
+        "callState",
+        "callAdded",
+        "callRemoved",
+        "inCallState",
+        "telecom",
+        "videoSession",
+    };
+
+    public static final int COMMAND_ANSWER = 0;
+    public static final int COMMAND_DEFLECT = 1;
+    public static final int COMMAND_REJECT = 2;
+    public static final int COMMAND_DISCONNECT = 3;
+    public static final int COMMAND_HOLD = 4;
+    public static final int COMMAND_UNHOLD = 5;
+    public static final int COMMAND_MUTE = 6;
+    public static final int COMMAND_AUDIO_ROUTE = 7;
+    public static final int COMMAND_PROXIMITY_ON = 8;
+    public static final int COMMAND_PROXIMITY_OFF = 9;
+    public static final int COMMAND_SWITCH_SUB = 10;
+    public static final int COMMAND_SEPARATE = 11;
+    public static final int COMMAND_MERGE = 12;
+    public static final int COMMAND_SWAP = 13;
+    public static final int COMMAND_PLAY_DTMF = 14;
+    public static final int COMMAND_STOP_DTMF = 15;
+    public static final int COMMAND_POST_DIAL_CONTINUE = 16;
+    public static final int COMMAND_ACCOUNT_SELECTED = 17;
+
+    private static final String[] COMMAND_NAMES = {
+        "answer",
+        "deflect",
+        "reject",
+        "disconnect",
+        "hold",
+        "unhold",
+        "mute",
+        "audioRoute",
+        "proximityOn",
+        "proximityOff",
+        "switchSub",
+        "separate",
+        "merge",
+        "swap",
+        "playDtmf",
+        "stopDtmf",
+        "postDialContinue",
+        "accountSelected",
+    };
+
+    /** Used for events that are not about a specific call. */
+    private static final int NO_CALL = 0xffffff;
+
+    /** Number of events kept; 16 bytes each. */
+    private static final int CAPACITY = 1024;
+
+    private static EventJournal sInstance;
+
+    /** Pairs of (timestamp, packed event). */
+    private final long[] mEntries = new long[CAPACITY * 2];
+    private long mCount;
+
+    public static synchronized EventJournal getInstance() {
+        if (sInstance == null) {
+            sInstance = new EventJournal();
+        }
+        return sInstance;
+    }
+
+    private EventJournal() {
+    }
+
+    /**
+     * Records an event about a call.
+     *
+     * @param callId The id of the call, as returned by {@link Call#getId()}, or null.
+     */
+    public void record(int event, String callId, int arg1, int arg2) {
+        record(event, getCallNumber(callId), arg1, arg2);
+    }
+
+    /**
+     * Records an event which is not about a specific call.
+     */
+    public void record(int event, int arg1, int arg2) {
+        record(event, NO_CALL, arg1, arg2);
+    }
+
+    private synchronized void record(int event, int callNumber, int arg1, int arg2) {
+        final int index = (int) (mCount % CAPACITY) * 2;
+        mEntries[index] = SystemClock.elapsedRealtimeNanos();
+        mEntries[index + 1] = ((long) (event & 0xff) << 56)
+                | ((long) (callNumber & 0xffffff) << 32)
+                | ((long) (arg1 & 0xffff) << 16)
+                | (arg2 & 0xffff);
+        mCount++;
+    }
+
+    /**
+     * Returns the number at the end of a call id, without allocating.
+     */
+    private static int getCallNumber(String callId) {
+        if (callId == null) {
+            return NO_CALL;
+        }
+        int number = 0;
+        int multiplier = 1;
+        for (int i = callId.length() - 1; i >= 0; i--) {
+            final char c = callId.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            number += (c - '0') * multiplier;
+            multiplier *= 10;
+        }
+        return number & 0xffffff;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        final long count = Math.min(mCount, CAPACITY);
+        pw.println("EventJournal: last " + count + " of " + mCount + " events");
+
+        // Timestamps are monotonic; show them as wall clock time as well.
+        final long nowNanos = SystemClock.elapsedRealtimeNanos();
+        final long nowMillis = System.currentTimeMillis();
+        for (long i = mCount - count; i < mCount; i++) {
+            final int index = (int) (i % CAPACITY) * 2;
+            final long timeNanos = mEntries[index];
+            final long packed = mEntries[index + 1];
+            final int event = (int) (packed >>> 56);
+            final int callNumber = (int) (packed >>> 32) & 0xffffff;
+            final int arg1 = (int) (packed >>> 16) & 0xffff;
+            final int arg2 = (int) packed & 0xffff;
+
+            final long wallMillis = nowMillis - (nowNanos - timeNanos) / 1000000;
+            final StringBuilder sb = new StringBuilder("  ");
+            sb.append(DateFormat.format("MM-dd kk:mm:ss", wallMillis));
+            sb.append(String.format(".%03d", wallMillis % 1000));
+            sb.append(String.format(" [%d.%06d] ", timeNanos / 1000000000,
+                    (timeNanos / 1000) % 1000000));
+            if (callNumber != NO_CALL) {
+                sb.append("Call_").append(callNumber).append(' ');
+            }
+            sb.append(event < EVENT_NAMES.length ? EVENT_NAMES[event] : "?").append(' ');
+            appendArgs(sb, event, arg1, arg2);
+            pw.println(sb);
+        }
+    }
+
+    private static void appendArgs(StringBuilder sb, int event, int arg1, int arg2) {
+        switch (event) {
+            case EVENT_CALL_STATE:
+                sb.append(Call.State.toString(arg1)).append(" -> ")
+                        .append(Call.State.toString(arg2));
+                break;
+            case EVENT_CALL_ADDED:
+            case EVENT_CALL_REMOVED:
+                sb.append(Call.State.toString(arg1));
+                break;
+            case EVENT_INCALL_STATE:
+                final InCallState[] states = InCallState.values();
+                sb.append(arg1 < states.length ? states[arg1] : arg1).append(" -> ")
+                        .append(arg2 < states.length ? states[arg2] : arg2);
+                break;
+            case EVENT_TELECOM_COMMAND:
+                sb.append(arg1 < COMMAND_NAMES.length ? COMMAND_NAMES[arg1] : arg1)
+                        .append(' ').append(arg2);
+                break;
+            case EVENT_VIDEO_SESSION:
+                sb.append("state=").append(arg1).append(" videoState=").append(arg2);
+                break;
+            default:
+                sb.append(arg1).append(' ').append(arg2);
+        }
+    }
+}
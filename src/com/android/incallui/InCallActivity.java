@@ -46,6 +46,7 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.accessibility.AccessibilityEvent;
@@ -127,6 +128,10 @@ public class InCallActivity extends Activity {
     protected void onCreate(Bundle icicle) {
         Log.d(this, "onCreate()...  this = " + this);
 
+        final UiPerformanceMonitor performanceMonitor = UiPerformanceMonitor.getInstance();
+        performanceMonitor.begin(UiPerformanceMonitor.OP_ACTIVITY_STARTUP);
+        CallLatencyTracer.getInstance().beginAll(CallLatencyTracer.SPAN_ACTIVITY_CREATE);
+
         super.onCreate(icicle);
 
         // set this flag so this activity will stay in front of the keyguard
@@ -200,6 +205,20 @@ public class InCallActivity extends Activity {
                 new IntentFilter(ACTION_SUPP_SERVICE_FAILURE);
         intentFilter.addAction(ACTION_SUPP_SERVICE_FAILURE);
         registerReceiver(mReceiver, intentFilter);
+
+        performanceMonitor.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
+        final ViewTreeObserver observer = getWindow().getDecorView().getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                performanceMonitor.end(UiPerformanceMonitor.OP_ACTIVITY_STARTUP);
+                return true;
+            }
+        });
+        CallLatencyTracer.getInstance().endAll(CallLatencyTracer.SPAN_ACTIVITY_CREATE);
         Log.d(this, "onCreate(): exit");
     }
 
@@ -866,9 +885,11 @@ public class InCallActivity extends Activity {
         int phoneCount = CallList.PHONE_COUNT;
         ActionBar bar = getActionBar();
 
+        final CallListSnapshot snapshot = InCallPresenter.getInstance().getCallListSnapshot();
+
         for (int i = 0; i < phoneCount; i++) {
-            int[] subId = CallList.getInstance().getSubId(i);
-            if (subId != null && CallList.getInstance().hasAnyLiveCall(subId[0])) {
+            final CallListSnapshot.SubscriptionView view = snapshot.getSubscriptionViewForPhone(i);
+            if (view != null && view.hasLiveCall()) {
                 if (!mDsdaTabAdd[i]) {
                     addDsdaTab(i);
                 }
@@ -17,12 +17,9 @@
 package com.android.incallui;
 
 import android.content.Context;
-import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.params.StreamConfigurationMap;
-import android.util.Size;
+
+import com.android.incallui.CameraCapabilityRegistry.CameraInfo;
 
 import java.lang.String;
 import java.util.Collections;
@@ -42,30 +39,15 @@ public class InCallCameraManager {
         newSetFromMap(new ConcurrentHashMap<CameraSelectionListener, Boolean>(8,0.9f,1));
 
     /**
-     * The camera ID for the front facing camera.
-     */
-    private String mFrontFacingCameraId;
-
-    /**
-     * The camera ID for the rear facing camera.
+     * The capabilities of the cameras, which are shared by all calls.
      */
-    private String mRearFacingCameraId;
+    private final CameraCapabilityRegistry mRegistry;
 
     /**
      * The currently active camera.
      */
     private boolean mUseFrontFacingCamera;
 
-    /**
-     * Aspect ratio of the front facing camera.
-     */
-    private float mFrontFacingCameraAspectRatio;
-
-    /**
-     * Aspect ratio of the rear facing camera.
-     */
-    private float mRearFacingCameraAspectRatio;
-
     /**
      * Initializes the InCall CameraManager.
      *
@@ -73,7 +55,11 @@ public class InCallCameraManager {
      */
     public InCallCameraManager(Context context) {
         mUseFrontFacingCamera = true;
-        initializeCameraList(context);
+        mRegistry = context != null ? CameraCapabilityRegistry.getInstance(context) : null;
+        if (mRegistry != null) {
+            // Usually already read in the background when the in-call service was bound.
+            mRegistry.loadAsync();
+        }
     }
 
     /**
@@ -105,63 +91,22 @@ public class InCallCameraManager {
      * @return The active camera ID.
      */
     public String getActiveCameraId() {
-        if (mUseFrontFacingCamera) {
-            return mFrontFacingCameraId;
-        } else {
-            return mRearFacingCameraId;
-        }
+        final CameraInfo camera = getActiveCameraInfo();
+        return camera != null ? camera.getId() : null;
     }
 
     /**
-     * Get the camera ID and aspect ratio for the front and rear cameras.
+     * Determines the capabilities of the active camera.
      *
-     * @param context The context.
+     * @return The capabilities of the active camera, or null if there is no such camera.
      */
-    private void initializeCameraList(Context context) {
-        if (context == null) {
-            return;
-        }
-
-        CameraManager cameraManager = null;
-        try {
-            cameraManager = (CameraManager) context.getSystemService(
-                    Context.CAMERA_SERVICE);
-        } catch (Exception e) {
-            Log.e(this, "Could not get camera service.");
-            return;
-        }
-
-        if (cameraManager == null) {
-            return;
-        }
-
-        String[] cameraIds = {};
-        try {
-            cameraIds = cameraManager.getCameraIdList();
-        } catch (CameraAccessException e) {
-            Log.d(this, "Could not access camera: "+e);
-            // Camera disabled by device policy.
-            return;
-        }
-
-        for (int i = 0; i < cameraIds.length; i++) {
-            CameraCharacteristics c = null;
-            try {
-                c = cameraManager.getCameraCharacteristics(cameraIds[i]);
-            } catch (IllegalArgumentException e) {
-                // Device Id is unknown.
-            } catch (CameraAccessException e) {
-                // Camera disabled by device policy.
-            }
-            if (c != null) {
-                int facingCharacteristic = c.get(CameraCharacteristics.LENS_FACING);
-                if (facingCharacteristic == CameraCharacteristics.LENS_FACING_FRONT) {
-                    mFrontFacingCameraId = cameraIds[i];
-                } else if (facingCharacteristic == CameraCharacteristics.LENS_FACING_BACK) {
-                    mRearFacingCameraId = cameraIds[i];
-                }
-            }
+    public CameraInfo getActiveCameraInfo() {
+        if (mRegistry == null) {
+            return null;
         }
+        return mRegistry.getCamera(mUseFrontFacingCamera
+                ? CameraCharacteristics.LENS_FACING_FRONT
+                : CameraCharacteristics.LENS_FACING_BACK);
     }
 
     public void addCameraSelectionListener(CameraSelectionListener listener) {
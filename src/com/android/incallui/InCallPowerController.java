@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.view.Window;
+import android.view.WindowManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Decides whether the proximity sensor turns the screen off during a call, whether the screen
+ * may time out, and wakes the screen up, from the state of the call and of the device.
+ *
+ * The inputs are kept as a bitfield of {@code INPUT_*} flags, and so is the state they call for.
+ * Inputs are re-evaluated on every change, but the proximity sensor is only turned on or off
+ * through telecom, and the window only updated, when the state they call for actually changes.
+ * How often each input toggled and how many of those calls were made are counted over the life
+ * of the process and printed by {@link InCallServiceImpl}'s dump.
+ *
+ * Used on the main thread only.
+ */
+public class InCallPowerController {
+
+    /** The phone is off hook: a call is dialing or in progress. */
+    public static final int INPUT_OFFHOOK = 1 << 0;
+    /** The in-call UI is in the foreground. */
+    public static final int INPUT_UI_SHOWING = 1 << 1;
+    public static final int INPUT_DIALPAD_VISIBLE = 1 << 2;
+    public static final int INPUT_HARD_KEYBOARD_OPEN = 1 << 3;
+    /** The device is laid down flat. */
+    public static final int INPUT_HORIZONTAL = 1 << 4;
+    /** The audio goes to a wired headset, the speaker or bluetooth. */
+    public static final int INPUT_EXTERNAL_AUDIO = 1 << 5;
+    /** The screen must not time out, as while a video call is shown. */
+    public static final int INPUT_KEEP_SCREEN_ON = 1 << 6;
+
+    private static final String[] INPUT_NAMES = {
+        "offhook", "ui", "dpad", "keybrd", "hor", "aud", "keepon"
+    };
+
+    private static final int OUTPUT_PROXIMITY_ON = 1 << 0;
+    private static final int OUTPUT_SCREEN_ON_IMMEDIATELY = 1 << 1;
+    private static final int OUTPUT_PROXIMITY_MASK =
+            OUTPUT_PROXIMITY_ON | OUTPUT_SCREEN_ON_IMMEDIATELY;
+
+    private static final int[] sInputToggles = new int[INPUT_NAMES.length];
+    private static int sProximityOnCalls;
+    private static int sProximityOffCalls;
+    private static int sSkippedUpdates;
+    private static int sKeepScreenOnChanges;
+    private static int sWakeUps;
+
+    private final PowerManager mPowerManager;
+    private final PowerManager.WakeLock mWakeLock;
+
+    private int mInputs;
+    /** The proximity sensor outputs last applied, valid if {@link #mOutputsApplied}. */
+    private int mOutputs;
+    private boolean mOutputsApplied;
+
+    public InCallPowerController(Context context) {
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = mPowerManager.newWakeLock(PowerManager.SCREEN_BRIGHT_WAKE_LOCK |
+                PowerManager.ACQUIRE_CAUSES_WAKEUP, "InCallPresenter");
+    }
+
+    /**
+     * Sets one of the {@code INPUT_*} flags and updates the proximity sensor if that changes
+     * whether it should be on.
+     */
+    public void setInput(int input, boolean set) {
+        setInputs(input, set ? input : 0);
+    }
+
+    /**
+     * Sets several {@code INPUT_*} flags at once, updating the proximity sensor at most once.
+     *
+     * @param inputs The flags to set.
+     * @param values The new values of those flags.
+     */
+    public void setInputs(int inputs, int values) {
+        if (updateInputs(inputs, values)) {
+            updateProximitySensor();
+        }
+    }
+
+    public boolean hasInput(int input) {
+        return (mInputs & input) != 0;
+    }
+
+    /**
+     * Lets the screen time out or keeps it on, updating the flags of the window only if they
+     * don't already match.
+     */
+    public void setScreenTimeoutEnabled(Window window, boolean enabled) {
+        updateInputs(INPUT_KEEP_SCREEN_ON, enabled ? 0 : INPUT_KEEP_SCREEN_ON);
+
+        // Checked against the window rather than kept as an output, since the window is a new
+        // one when the activity is recreated.
+        final boolean isKeptOn = (window.getAttributes().flags
+                & WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON) != 0;
+        if (isKeptOn == enabled) {
+            sKeepScreenOnChanges++;
+            if (enabled) {
+                window.clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+            } else {
+                window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+            }
+        }
+    }
+
+    /**
+     * Turns the screen on if it is off.
+     */
+    public void wakeUpScreen() {
+        if (!mPowerManager.isInteractive()) {
+            Log.v(this, "wakeUpScreen");
+            sWakeUps++;
+            mWakeLock.acquire();
+            mWakeLock.release();
+        }
+    }
+
+    /**
+     * Turns off the proximity sensor and forgets the inputs. Called when the calls are over.
+     */
+    public void tearDown() {
+        mInputs = 0;
+        mOutputs = OUTPUT_SCREEN_ON_IMMEDIATELY;
+        mOutputsApplied = true;
+        sProximityOffCalls++;
+        TelecomAdapter.getInstance().turnOffProximitySensor(true);
+    }
+
+    /**
+     * @return Whether any of the inputs changed.
+     */
+    private boolean updateInputs(int inputs, int values) {
+        final int newInputs = (mInputs & ~inputs) | (values & inputs);
+        final int toggled = newInputs ^ mInputs;
+        if (toggled == 0) {
+            return false;
+        }
+        mInputs = newInputs;
+        for (int i = 0; i < INPUT_NAMES.length; i++) {
+            if ((toggled & (1 << i)) != 0) {
+                sInputToggles[i]++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Holds a PROXIMITY_SCREEN_OFF_WAKE_LOCK through telecom whenever the phone is off hook,
+     * which turns the screen off when the sensor detects an object close to it, unless:
+     * 1) the audio is routed via bluetooth, a wired headset or the speaker,
+     * 2) the slider is open (i.e. the hard keyboard is *not* hidden),
+     * 3) the device is laid down flat while the in-call UI isn't shown, or while the dialpad is.
+     */
+    private void updateProximitySensor() {
+        final boolean horizontal = hasInput(INPUT_HORIZONTAL);
+
+        // Turn the proximity sensor off and the screen on immediately if we are using a
+        // headset, the keyboard is open, or the device is being held in a horizontal position.
+        // We do not keep the screen off when the user is outside the in-call screen and we are
+        // horizontal, but we do not force it on when we become horizontal until the proximity
+        // sensor goes negative. We do not keep the screen off either when the dialpad is
+        // visible and we are horizontal: users then most likely want to use it.
+        final boolean screenOnImmediately = hasInput(INPUT_EXTERNAL_AUDIO)
+                || hasInput(INPUT_HARD_KEYBOARD_OPEN)
+                || (horizontal && !hasInput(INPUT_UI_SHOWING))
+                || (horizontal && hasInput(INPUT_DIALPAD_VISIBLE));
+
+        int proximity = 0;
+        if (hasInput(INPUT_OFFHOOK) && !screenOnImmediately) {
+            proximity = OUTPUT_PROXIMITY_ON;
+        } else if (screenOnImmediately) {
+            proximity = OUTPUT_SCREEN_ON_IMMEDIATELY;
+        }
+
+        if (mOutputsApplied && (mOutputs & OUTPUT_PROXIMITY_MASK) == proximity) {
+            sSkippedUpdates++;
+            return;
+        }
+        mOutputs = (mOutputs & ~OUTPUT_PROXIMITY_MASK) | proximity;
+        mOutputsApplied = true;
+
+        Log.i(this, "inputs: " + inputsToString(mInputs));
+        if (proximity == OUTPUT_PROXIMITY_ON) {
+            Log.d(this, "Turning on proximity sensor");
+            sProximityOnCalls++;
+            TelecomAdapter.getInstance().turnOnProximitySensor();
+        } else {
+            Log.d(this, "Turning off proximity sensor");
+            sProximityOffCalls++;
+            TelecomAdapter.getInstance().turnOffProximitySensor(screenOnImmediately);
+        }
+    }
+
+    private static String inputsToString(int inputs) {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < INPUT_NAMES.length; i++) {
+            if ((inputs & (1 << i)) != 0) {
+                sb.append(sb.length() > 1 ? " " : "").append(INPUT_NAMES[i]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Prints how often the inputs toggled and how often that led to a call.
+     */
+    public static void dump(PrintWriter pw) {
+        pw.println("InCallPowerController:");
+        final StringBuilder sb = new StringBuilder("  input toggles:");
+        for (int i = 0; i < INPUT_NAMES.length; i++) {
+            sb.append(' ').append(INPUT_NAMES[i]).append('=').append(sInputToggles[i]);
+        }
+        pw.println(sb);
+        pw.println("  proximity on calls: " + sProximityOnCalls
+                + ", proximity off calls: " + sProximityOffCalls
+                + ", skipped updates: " + sSkippedUpdates);
+        pw.println("  keep screen on changes: " + sKeepScreenOnChanges
+                + ", wake ups: " + sWakeUps);
+    }
+}
@@ -33,10 +33,7 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.view.Surface;
 import android.view.View;
-import android.view.Window;
-import android.view.WindowManager;
 
-import android.os.PowerManager;
 
 import com.google.common.base.Preconditions;
 import com.android.incalluibind.ObjectFactory;
@@ -44,6 +41,7 @@ import com.android.incalluibind.ObjectFactory;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -64,13 +62,19 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
 
     private static InCallPresenter sInCallPresenter;
 
+    /**
+     * Set on the change mask of a newly added {@link InCallStateListener} so that it receives the
+     * next state change regardless of what changed.
+     */
+    private static final int CHANGE_MASK_PENDING_FIRST_UPDATE = 1 << 31;
+
     /**
      * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
      * load factor before resizing, 1 means we only expect a single thread to
      * access the map so make only a single shard
      */
-    private final Set<InCallStateListener> mListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<InCallStateListener, Boolean>(8, 0.9f, 1));
+    private final ConcurrentHashMap<InCallStateListener, Integer> mListeners =
+            new ConcurrentHashMap<InCallStateListener, Integer>(8, 0.9f, 1);
     private final List<IncomingCallListener> mIncomingCallListeners = new CopyOnWriteArrayList<>();
     private final Set<InCallDetailsListener> mDetailsListeners = Collections.newSetFromMap(
             new ConcurrentHashMap<InCallDetailsListener, Boolean>(8, 0.9f, 1));
@@ -88,12 +92,14 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
     private CallList mCallList;
     private InCallActivity mInCallActivity;
     private InCallState mInCallState = InCallState.NO_CALLS;
+    private CallListSnapshot mCallListSnapshot = CallListSnapshot.EMPTY;
+    /** The snapshot last delivered to {@link InCallStateListener}s, used to compute changes. */
+    private CallListSnapshot mNotifiedCallListSnapshot = null;
     private ProximitySensor mProximitySensor;
     private boolean mServiceConnected = false;
     private boolean mAccountSelectionCancelled = false;
     private InCallCameraManager mInCallCameraManager = null;
-    private PowerManager mPowerManager;
-    private PowerManager.WakeLock mWakeLock = null;
+    private InCallPowerController mPowerController;
 
     private final Phone.Listener mPhoneListener = new Phone.Listener() {
         @Override
@@ -192,6 +198,13 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         return mCallList;
     }
 
+    /**
+     * @return The snapshot of the call list taken the last time the in-call state was computed.
+     */
+    public CallListSnapshot getCallListSnapshot() {
+        return mCallListSnapshot;
+    }
+
     public void setUp(Context context, CallList callList, AudioModeProvider audioModeProvider) {
         if (mServiceConnected) {
             Log.i(this, "New service connection replacing existing one.");
@@ -212,12 +225,10 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
 
         mAudioModeProvider = audioModeProvider;
 
-        mProximitySensor = new ProximitySensor(context, mAudioModeProvider);
-        addListener(mProximitySensor);
-
-        mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
-        mWakeLock = mPowerManager.newWakeLock(PowerManager.SCREEN_BRIGHT_WAKE_LOCK |
-                PowerManager.ACQUIRE_CAUSES_WAKEUP, "InCallPresenter");
+        mPowerController = new InCallPowerController(context);
+        mProximitySensor = new ProximitySensor(context, mAudioModeProvider, mPowerController);
+        // The proximity sensor only cares whether the phone is off hook.
+        addListener(mProximitySensor, CallListSnapshot.CHANGE_CALL_STATE);
 
         mCallList = callList;
 
@@ -359,26 +370,41 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         if (callList == null) {
             return;
         }
-        Log.d(this, "onCallListChange callList=" + callList.toString() );
+        Log.d(this, "onCallListChange callList=", callList);
         InCallState newState = getPotentialStateFromCallList(callList);
         InCallState oldState = mInCallState;
-        Log.d(this, "onCallListChange oldState= " + oldState + " newState=" + newState);
+        Log.d(this, "onCallListChange oldState= ", oldState, " newState=", newState);
         newState = startOrFinishUi(newState);
-        Log.d(this, "onCallListChange newState changed to " + newState);
+        Log.d(this, "onCallListChange newState changed to ", newState);
 
         // Set the new state before announcing it to the world
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
         mInCallState = newState;
-
-        // notify listeners of new state
-        for (InCallStateListener listener : mListeners) {
-            Log.d(this, "Notify " + listener + " of state " + mInCallState.toString());
-            listener.onStateChange(oldState, mInCallState, callList);
+        recordInCallState(oldState, newState);
+        final CallListSnapshot snapshot = new CallListSnapshot(callList, newState);
+        mCallListSnapshot = snapshot;
+        final int changes = snapshot.getChangesFrom(mNotifiedCallListSnapshot);
+        mNotifiedCallListSnapshot = snapshot;
+        if (Log.DEBUG) {
+            Log.d(this, "onCallListChange changes=0x" + Integer.toHexString(changes));
+        }
+
+        // notify listeners of new state, skipping those which are not interested in what changed
+        for (Map.Entry<InCallStateListener, Integer> entry : mListeners.entrySet()) {
+            final int changeMask = entry.getValue();
+            if ((changeMask & CHANGE_MASK_PENDING_FIRST_UPDATE) != 0) {
+                entry.setValue(changeMask & ~CHANGE_MASK_PENDING_FIRST_UPDATE);
+            } else if (changeMask != CallListSnapshot.CHANGE_ALL && (changeMask & changes) == 0) {
+                continue;
+            }
+            final InCallStateListener listener = entry.getKey();
+            Log.d(this, "Notify ", listener, " of state ", mInCallState);
+            listener.onStateChange(oldState, mInCallState, snapshot);
         }
 
         if (isActivityStarted()) {
-            final boolean hasCall = callList.getActiveOrBackgroundCall() != null ||
-                    callList.getOutgoingCall() != null;
+            final boolean hasCall = snapshot.getActiveOrBackgroundCall() != null ||
+                    snapshot.getOutgoingCall() != null;
             mInCallActivity.dismissKeyguard(hasCall);
         }
         if (CallList.getInstance().isDsdaEnabled() && (mInCallActivity != null)) {
@@ -393,11 +419,21 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      */
     @Override
     public void onIncomingCall(Call call) {
+        final CallLatencyTracer tracer = CallLatencyTracer.getInstance();
+        tracer.begin(call.getId(), CallLatencyTracer.SPAN_PRESENTER);
+        tracer.begin(call.getId(), CallLatencyTracer.SPAN_START_UI);
         InCallState newState = startOrFinishUi(InCallState.INCOMING);
+        tracer.end(call.getId(), CallLatencyTracer.SPAN_START_UI);
+        if (call.isVideoCall(mContext)) {
+            // Get the video surfaces ready while the call rings.
+            VideoSurfacePool.getInstance().prewarm(mContext);
+        }
         InCallState oldState = mInCallState;
 
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
         mInCallState = newState;
+        recordInCallState(oldState, newState);
+        mCallListSnapshot = new CallListSnapshot(mCallList, newState);
 
         for (IncomingCallListener listener : mIncomingCallListeners) {
             listener.onIncomingCall(oldState, mInCallState, call);
@@ -406,6 +442,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         if (CallList.getInstance().isDsdaEnabled() && (mInCallActivity != null)) {
             mInCallActivity.updateDsdaTab();
         }
+        tracer.end(call.getId(), CallLatencyTracer.SPAN_PRESENTER);
     }
 
     @Override
@@ -471,8 +508,20 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
     }
 
     public void addListener(InCallStateListener listener) {
+        addListener(listener, CallListSnapshot.CHANGE_ALL);
+    }
+
+    /**
+     * Adds a listener which is only told about state changes matching the given mask. Listeners
+     * registered with {@link CallListSnapshot#CHANGE_ALL} are told about every recalculation of
+     * the in-call state, even when nothing in the snapshot changed.
+     *
+     * @param listener The listener.
+     * @param changeMask Bitmask of {@code CallListSnapshot.CHANGE_*} values.
+     */
+    public void addListener(InCallStateListener listener, int changeMask) {
         Preconditions.checkNotNull(listener);
-        mListeners.add(listener);
+        mListeners.put(listener, changeMask | CHANGE_MASK_PENDING_FIRST_UPDATE);
     }
 
     public void removeListener(InCallStateListener listener) {
@@ -619,9 +668,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
 
         Call call = mCallList.getVideoUpgradeRequestCall();
         if (call != null) {
-            VideoProfile videoProfile = new VideoProfile(videoState);
-            call.getVideoCall().sendSessionModifyResponse(videoProfile);
-            call.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+            call.getSessionModificationEngine().accept(videoState);
         }
     }
 
@@ -636,10 +683,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
 
         Call call = mCallList.getVideoUpgradeRequestCall();
         if (call != null) {
-            VideoProfile videoProfile =
-                    new VideoProfile(call.getVideoState());
-            call.getVideoCall().sendSessionModifyResponse(videoProfile);
-            call.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+            call.getSessionModificationEngine().decline();
         }
     }
 
@@ -686,7 +730,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         // We need to update the notification bar when we leave the UI because that
         // could trigger it to show again.
         if (mStatusBarNotifier != null) {
-            mStatusBarNotifier.updateNotification(mInCallState, mCallList);
+            mStatusBarNotifier.updateNotification(mInCallState, mCallListSnapshot);
         }
 
         if (mProximitySensor != null) {
@@ -877,7 +921,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * the UI needs to be started or finished depending on the new state and does it.
      */
     private InCallState startOrFinishUi(InCallState newState) {
-        Log.d(this, "startOrFinishUi: " + mInCallState + " -> " + newState);
+        Log.d(this, "startOrFinishUi: ", mInCallState, " -> ", newState);
 
         // TODO: Consider a proper state machine implementation
 
@@ -899,7 +943,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
                                (mInCallActivity == null);
         }
 
-        Log.d(this, "startOrFinishUi: " + isAutoAnswer);
+        Log.d(this, "startOrFinishUi: ", isAutoAnswer);
 
         if ((newState == mInCallState && !(mInCallActivity == null && isAnyOtherSubActive))
                 || alreadyOutgoing) {
@@ -990,6 +1034,16 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         return newState;
     }
 
+    /**
+     * Records a change of the in-call state in the {@link EventJournal}.
+     */
+    private void recordInCallState(InCallState oldState, InCallState newState) {
+        if (oldState != newState) {
+            EventJournal.getInstance().record(EventJournal.EVENT_INCALL_STATE,
+                    oldState.ordinal(), newState.ordinal());
+        }
+    }
+
     /**
      * Sets the DisconnectCause for a call that was disconnected because it was missing a
      * PhoneAccount or PhoneAccounts to select from.
@@ -1049,7 +1103,9 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
                 showInCall(false, false);
             }
         } else {
-            mStatusBarNotifier.updateNotification(inCallState, mCallList);
+            // The state has not been committed yet, so the notification needs a fresh snapshot.
+            mStatusBarNotifier.updateNotification(inCallState,
+                    new CallListSnapshot(mCallList, inCallState));
         }
         return true;
     }
@@ -1074,14 +1130,15 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
             }
             mContactInfoCache = null;
 
+            VideoSurfacePool.getInstance().clear();
+
             if (mProximitySensor != null) {
                 removeListener(mProximitySensor);
                 mProximitySensor.tearDown();
             }
             mProximitySensor = null;
 
-            mWakeLock = null;
-            mPowerManager = null;
+            mPowerController = null;
 
             mAudioModeProvider = null;
 
@@ -1094,6 +1151,8 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
                 mCallList.removeListener(this);
             }
             mCallList = null;
+            mCallListSnapshot = CallListSnapshot.EMPTY;
+            mNotifiedCallListSnapshot = null;
 
             mContext = null;
             mInCallActivity = null;
@@ -1167,7 +1226,7 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * @param rotation The device rotation.
      */
     public void onDeviceRotationChange(int rotation) {
-        Log.d(this, "onDeviceRotationChange: rotation=" + rotation);
+        Log.d(this, "onDeviceRotationChange: rotation=", rotation);
         // First translate to rotation in degrees.
         if (mCallList!=null) {
             mCallList.notifyCallsOfDeviceRotation(toRotationAngle(rotation));
@@ -1231,31 +1290,9 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         }
     }
 
-    /* returns TRUE if screen is turned ON else false */
-    private boolean isScreenInteractive() {
-        return mPowerManager.isInteractive();
-    }
-
     public void wakeUpScreen() {
-        if (!isScreenInteractive()) {
-            acquireWakeLock();
-            releaseWakeLock();
-        }
-    }
-
-    private void acquireWakeLock() {
-        Log.v(this, "acquireWakeLock");
-
-        if (mWakeLock != null) {
-            mWakeLock.acquire();
-        }
-    }
-
-    private void releaseWakeLock() {
-        Log.v(this, "releaseWakeLock");
-
-        if (mWakeLock != null && mWakeLock.isHeld()) {
-            mWakeLock.release();
+        if (mPowerController != null) {
+            mPowerController.wakeUpScreen();
         }
     }
 
@@ -1266,11 +1303,8 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
             return;
         }
 
-        final Window window = mInCallActivity.getWindow();
-        if (v) {
-            window.clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
-        } else {
-            window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        if (mPowerController != null) {
+            mPowerController.setScreenTimeoutEnabled(mInCallActivity.getWindow(), v);
         }
     }
 
@@ -1347,8 +1381,8 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * Interface implemented by classes that need to know about the InCall State.
      */
     public interface InCallStateListener {
-        // TODO: Enhance state to contain the call objects instead of passing CallList
-        public void onStateChange(InCallState oldState, InCallState newState, CallList callList);
+        public void onStateChange(InCallState oldState, InCallState newState,
+                CallListSnapshot snapshot);
     }
 
     public interface IncomingCallListener {
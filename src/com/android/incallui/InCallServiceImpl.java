@@ -19,6 +19,9 @@ package com.android.incallui;
 import android.telecom.InCallService;
 import android.telecom.Phone;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Used to receive updates about calls from the Telecomm component.  This service is bound to
  * Telecomm while there exist calls which potentially require UI. This includes ringing (incoming),
@@ -30,6 +33,8 @@ public class InCallServiceImpl extends InCallService {
     @Override
     public void onPhoneCreated(Phone phone) {
         Log.v(this, "onPhoneCreated");
+        UiPerformanceMonitor.getInstance().begin(
+                UiPerformanceMonitor.OP_PHONE_CREATED_TO_CALL_CARD);
         CallList.getInstance().setPhone(phone);
         AudioModeProvider.getInstance().setPhone(phone);
         TelecomAdapter.getInstance().setPhone(phone);
@@ -39,11 +44,16 @@ public class InCallServiceImpl extends InCallService {
                 CallList.getInstance(),
                 AudioModeProvider.getInstance());
         TelecomAdapter.getInstance().setContext(InCallServiceImpl.this);
+        // Ready for the first video call, and kept for the next ones.
+        CameraCapabilityRegistry.getInstance(this).loadAsync();
     }
 
     @Override
     public void onPhoneDestroyed(Phone phone) {
         Log.v(this, "onPhoneDestroyed");
+        // The call card may never have been drawn, e.g. for a call rejected from a notification.
+        UiPerformanceMonitor.getInstance().cancel(
+                UiPerformanceMonitor.OP_PHONE_CREATED_TO_CALL_CARD);
         // Tear down the InCall system
         CallList.getInstance().clearPhone();
         AudioModeProvider.getInstance().clearPhone();
@@ -52,4 +62,15 @@ public class InCallServiceImpl extends InCallService {
         CallList.getInstance().clearOnDisconnect();
         InCallPresenter.getInstance().tearDown();
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        UiPerformanceMonitor.getInstance().dump(pw);
+        CallLatencyTracer.getInstance().dump(pw);
+        EventJournal.getInstance().dump(pw);
+        SessionModificationEngine.dump(pw);
+        VideoSurfacePool.getInstance().dump(pw);
+        CameraCapabilityRegistry.getInstance(this).dump(pw);
+        InCallPowerController.dump(pw);
+    }
 }
@@ -50,12 +50,21 @@ public class InCallVideoCallListener extends VideoCall.Listener {
     public void onSessionModifyRequestReceived(VideoProfile videoProfile) {
         Log.d(this, " onSessionModifyRequestReceived videoProfile=" + videoProfile);
 
-        /* turn ON screen when already turned OFF */
-        InCallPresenter.getInstance().wakeUpScreen();
-
         int previousVideoState = CallUtils.toUnPausedVideoState(mCall.getVideoState());
         int newVideoState = CallUtils.toUnPausedVideoState(videoProfile.getVideoState());
 
+        if (previousVideoState == newVideoState
+                && VideoQualityController.isQualityRequest(videoProfile)) {
+            // The peer only asks for another quality of video, nothing for the user to answer.
+            if (mCall.getVideoCall() != null) {
+                mCall.getVideoCall().sendSessionModifyResponse(videoProfile);
+            }
+            return;
+        }
+
+        /* turn ON screen when already turned OFF */
+        InCallPresenter.getInstance().wakeUpScreen();
+
         boolean wasVideoCall = VideoProfile.VideoState.isVideo(previousVideoState);
         boolean isVideoCall = VideoProfile.VideoState.isVideo(newVideoState);
 
@@ -63,6 +72,7 @@ public class InCallVideoCallListener extends VideoCall.Listener {
         if (wasVideoCall && !isVideoCall) {
             InCallVideoCallListenerNotifier.getInstance().downgradeToAudio(mCall);
         } else if (previousVideoState != newVideoState) {
+            mCall.getSessionModificationEngine().onRequestReceived(newVideoState);
             InCallVideoCallListenerNotifier.getInstance().upgradeToVideoRequest(mCall,
                 newVideoState);
         }
@@ -83,12 +93,24 @@ public class InCallVideoCallListener extends VideoCall.Listener {
             VideoProfile responseProfile) {
         Log.d(this, "onSessionModifyResponseReceived status=" + status + " requestedProfile="
                 + requestedProfile + " responseProfile=" + responseProfile);
+        if (VideoQualityController.isQualityRequest(requestedProfile)) {
+            // Only the quality of the video was asked to change, not the video state.
+            return;
+        }
+        final SessionModificationEngine engine = mCall.getSessionModificationEngine();
         if (status != VideoProvider.SESSION_MODIFY_REQUEST_SUCCESS) {
-            InCallVideoCallListenerNotifier.getInstance().upgradeToVideoFail(status, mCall);
+            if (engine.onResponseReceived(requestedProfile, status, false /* succeeded */,
+                    false /* isVideo */)) {
+                InCallVideoCallListenerNotifier.getInstance().upgradeToVideoFail(status, mCall);
+            }
         } else if (requestedProfile != null && responseProfile != null) {
             boolean modifySucceeded = requestedProfile.getVideoState() ==
                     responseProfile.getVideoState();
             boolean isVideoCall = VideoProfile.VideoState.isVideo(responseProfile.getVideoState());
+            if (!engine.onResponseReceived(requestedProfile, status, modifySucceeded,
+                    isVideoCall)) {
+                return;
+            }
             if (modifySucceeded && isVideoCall) {
                 InCallVideoCallListenerNotifier.getInstance().upgradeToVideoSuccess(mCall);
             } else if (!modifySucceeded) {
@@ -96,6 +118,9 @@ public class InCallVideoCallListener extends VideoCall.Listener {
             }
         } else {
             Log.d(this, "onSessionModifyResponseReceived request and response Profiles are null");
+            // Nothing to tell the listeners, but the request is answered.
+            engine.onResponseReceived(requestedProfile, status, true /* succeeded */,
+                    VideoProfile.VideoState.isVideo(mCall.getVideoState()));
         }
     }
 
@@ -117,6 +142,7 @@ public class InCallVideoCallListener extends VideoCall.Listener {
      */
     @Override
     public void onPeerDimensionsChanged(int width, int height) {
+        mCall.getSessionModificationEngine().onPeerDimensionsChanged(width, height);
         InCallVideoCallListenerNotifier.getInstance().peerDimensionsChanged(mCall, width, height);
     }
 
@@ -16,8 +16,13 @@
 
 package com.android.incallui;
 
+import android.os.SystemClock;
+import android.view.Choreographer;
+
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -25,8 +30,45 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Class used by {@link InCallService.VideoCallListener} to notify interested parties of incoming
  * events.
+ *
+ * Events which only carry the latest value of something, such as the peer dimensions or the data
+ * usage, can come in bursts which would make the listeners lay out the video surfaces over and
+ * over. They are coalesced per call and type: listeners get the latest value on the next frame,
+ * and no more often than the dispatch interval of the type allows. Other events are dispatched
+ * right away. Coalesced events must be posted from the main thread.
  */
 public class InCallVideoCallListenerNotifier {
+    /** {@link #peerDimensionsChanged}. */
+    public static final int EVENT_PEER_DIMENSIONS = 0;
+    /** {@link #cameraDimensionsChanged}. */
+    public static final int EVENT_CAMERA_DIMENSIONS = 1;
+    /** {@link #videoQualityChanged}. */
+    public static final int EVENT_VIDEO_QUALITY = 2;
+    /** {@link #callDataUsageChanged}. */
+    public static final int EVENT_DATA_USAGE = 3;
+    private static final int EVENT_COUNT = 4;
+
+    /** Dispatch interval which turns off coalescing for an event type. */
+    public static final long DISPATCH_IMMEDIATELY = -1;
+
+    /**
+     * Latest value of a coalesced event, for one call and type.
+     */
+    private static class CoalescedEvent {
+        final int type;
+        final Call call;
+        int arg1;
+        int arg2;
+        boolean pending;
+        /** When the event was last dispatched, or 0. */
+        long lastDispatchTime;
+
+        CoalescedEvent(int type, Call call) {
+            this.type = type;
+            this.call = call;
+        }
+    }
+
     /**
      * Singleton instance of this class.
      */
@@ -45,6 +87,19 @@ public class InCallVideoCallListenerNotifier {
     private final Set<SurfaceChangeListener> mSurfaceChangeListeners = Collections.newSetFromMap(
             new ConcurrentHashMap<SurfaceChangeListener, Boolean>(8, 0.9f, 1));
 
+    /** Minimum time between two dispatches of an event type for a call, in milliseconds. */
+    private final long[] mDispatchIntervals = new long[EVENT_COUNT];
+    private final ArrayList<CoalescedEvent> mCoalescedEvents = Lists.newArrayList();
+    /** The events to dispatch on the current frame; reused. */
+    private final ArrayList<CoalescedEvent> mDueEvents = Lists.newArrayList();
+    private Choreographer mChoreographer;
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatchDueEvents();
+        }
+    };
+
     /**
      * Static singleton accessor method.
      */
@@ -56,6 +111,23 @@ public class InCallVideoCallListenerNotifier {
      * Private constructor.  Instance should only be acquired through getInstance().
      */
     private InCallVideoCallListenerNotifier() {
+        // Surface sizes only need to follow the latest value once per frame; the data usage and
+        // video quality are only shown as toasts.
+        mDispatchIntervals[EVENT_PEER_DIMENSIONS] = 0;
+        mDispatchIntervals[EVENT_CAMERA_DIMENSIONS] = 0;
+        mDispatchIntervals[EVENT_VIDEO_QUALITY] = 500;
+        mDispatchIntervals[EVENT_DATA_USAGE] = 1000;
+    }
+
+    /**
+     * Sets the minimum time between two dispatches of an event type for the same call.
+     *
+     * @param event One of the {@code EVENT_*} types.
+     * @param intervalMs The interval in milliseconds, 0 to only coalesce events within a frame,
+     *         or {@link #DISPATCH_IMMEDIATELY} to dispatch every event as it comes.
+     */
+    public void setDispatchInterval(int event, long intervalMs) {
+        mDispatchIntervals[event] = intervalMs;
     }
 
     /**
@@ -196,6 +268,10 @@ public class InCallVideoCallListenerNotifier {
      * @param videoQuality The updated video quality of the call.
      */
     public void videoQualityChanged(Call call, int videoQuality) {
+        post(EVENT_VIDEO_QUALITY, call, videoQuality, 0);
+    }
+
+    private void dispatchVideoQualityChanged(Call call, int videoQuality) {
         for (VideoEventListener listener : mVideoEventListeners) {
             listener.onVideoQualityChanged(call, videoQuality);
         }
@@ -209,6 +285,10 @@ public class InCallVideoCallListenerNotifier {
      * @param height New peer height.
      */
     public void peerDimensionsChanged(Call call, int width, int height) {
+        post(EVENT_PEER_DIMENSIONS, call, width, height);
+    }
+
+    private void dispatchPeerDimensionsChanged(Call call, int width, int height) {
         for (SurfaceChangeListener listener : mSurfaceChangeListeners) {
             listener.onUpdatePeerDimensions(call, width, height);
         }
@@ -222,6 +302,10 @@ public class InCallVideoCallListenerNotifier {
      * @param height The new camera video height.
      */
     public void cameraDimensionsChanged(Call call, int width, int height) {
+        post(EVENT_CAMERA_DIMENSIONS, call, width, height);
+    }
+
+    private void dispatchCameraDimensionsChanged(Call call, int width, int height) {
         for (SurfaceChangeListener listener : mSurfaceChangeListeners) {
             listener.onCameraDimensionsChange(call, width, height);
         }
@@ -245,11 +329,109 @@ public class InCallVideoCallListenerNotifier {
      * @param dataUsage data usage value
      */
     public void callDataUsageChanged(int dataUsage) {
+        post(EVENT_DATA_USAGE, null, dataUsage, 0);
+    }
+
+    private void dispatchCallDataUsageChanged(int dataUsage) {
         for (VideoEventListener listener : mVideoEventListeners) {
             listener.onCallDataUsageChange(dataUsage);
         }
     }
 
+    /**
+     * Records the latest value of a coalesced event and schedules its dispatch.
+     *
+     * @param call The call the event is about, or null.
+     */
+    private void post(int type, Call call, int arg1, int arg2) {
+        if (mDispatchIntervals[type] < 0) {
+            dispatch(type, call, arg1, arg2);
+            return;
+        }
+
+        CoalescedEvent event = null;
+        for (int i = 0; i < mCoalescedEvents.size(); i++) {
+            final CoalescedEvent e = mCoalescedEvents.get(i);
+            if (e.type == type && e.call == call) {
+                event = e;
+                break;
+            }
+        }
+        if (event == null) {
+            event = new CoalescedEvent(type, call);
+            mCoalescedEvents.add(event);
+        }
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.pending = true;
+        scheduleFrame();
+    }
+
+    /**
+     * Schedules a frame callback for when the next pending event is due, or for when the last
+     * dispatch of an event is old enough to forget it.
+     */
+    private void scheduleFrame() {
+        if (mChoreographer == null) {
+            mChoreographer = Choreographer.getInstance();
+        }
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        if (mCoalescedEvents.isEmpty()) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < mCoalescedEvents.size(); i++) {
+            final CoalescedEvent event = mCoalescedEvents.get(i);
+            next = Math.min(next, event.lastDispatchTime + mDispatchIntervals[event.type]);
+        }
+        mChoreographer.postFrameCallbackDelayed(mFrameCallback, Math.max(0, next - now));
+    }
+
+    private void dispatchDueEvents() {
+        final long now = SystemClock.uptimeMillis();
+        for (int i = mCoalescedEvents.size() - 1; i >= 0; i--) {
+            final CoalescedEvent event = mCoalescedEvents.get(i);
+            if (now < event.lastDispatchTime + mDispatchIntervals[event.type]) {
+                continue;
+            }
+            if (event.pending) {
+                event.pending = false;
+                event.lastDispatchTime = now;
+                mDueEvents.add(0, event);
+            } else {
+                // Not rate limited anymore; drop it so it doesn't hold on to the call.
+                mCoalescedEvents.remove(i);
+            }
+        }
+
+        // Listeners may post more events, which are dispatched on a later frame.
+        for (int i = 0; i < mDueEvents.size(); i++) {
+            final CoalescedEvent event = mDueEvents.get(i);
+            dispatch(event.type, event.call, event.arg1, event.arg2);
+        }
+        mDueEvents.clear();
+        scheduleFrame();
+    }
+
+    private void dispatch(int type, Call call, int arg1, int arg2) {
+        switch (type) {
+            case EVENT_PEER_DIMENSIONS:
+                dispatchPeerDimensionsChanged(call, arg1, arg2);
+                break;
+            case EVENT_CAMERA_DIMENSIONS:
+                dispatchCameraDimensionsChanged(call, arg1, arg2);
+                break;
+            case EVENT_VIDEO_QUALITY:
+                dispatchVideoQualityChanged(call, arg1);
+                break;
+            case EVENT_DATA_USAGE:
+                dispatchCallDataUsageChanged(arg1);
+                break;
+        }
+    }
+
     /**
      * Listener interface for any class that wants to be notified of upgrade to video and downgrade
      * to audio session modification requests.
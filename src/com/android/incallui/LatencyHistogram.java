@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import java.io.PrintWriter;
+
+/**
+ * Histogram of latencies in milliseconds, with fixed, roughly exponential buckets. Recording a
+ * sample doesn't allocate. Thread safe.
+ */
+class LatencyHistogram {
+
+    /** Upper bounds of the buckets, exclusive. The last bucket has no upper bound. */
+    private static final long[] BUCKET_LIMITS_MS = {
+        100, 200, 500, 1000, 2000, 5000, 10000, 20000
+    };
+
+    private final String mName;
+    private final int[] mCounts = new int[BUCKET_LIMITS_MS.length + 1];
+    private int mCount;
+    private long mTotalMs;
+    private long mMaxMs;
+
+    LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public synchronized void record(long latencyMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length && latencyMs >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mCount++;
+        mTotalMs += latencyMs;
+        mMaxMs = Math.max(mMaxMs, latencyMs);
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        if (mCount == 0) {
+            pw.println(prefix + mName + ": no samples");
+            return;
+        }
+        pw.println(prefix + mName + ": count=" + mCount + " avg=" + (mTotalMs / mCount)
+                + "ms max=" + mMaxMs + "ms");
+        final StringBuilder sb = new StringBuilder(prefix).append("  ");
+        for (int i = 0; i < mCounts.length; i++) {
+            if (i < BUCKET_LIMITS_MS.length) {
+                sb.append('<').append(BUCKET_LIMITS_MS[i]);
+            } else {
+                sb.append(">=").append(BUCKET_LIMITS_MS[i - 1]);
+            }
+            sb.append("ms:").append(mCounts[i]).append(' ');
+        }
+        pw.println(sb);
+    }
+}
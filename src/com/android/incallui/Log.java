@@ -25,6 +25,10 @@ import java.security.NoSuchAlgorithmException;
 
 /**
  * Manages logging for the entire class.
+ *
+ * On hot paths, pass the parts of debug and verbose messages separately instead of
+ * concatenating them: the message is then only built, and {@code toString()} only called on its
+ * parts, if the log level is enabled. Primitive parts are still boxed at the call site.
  */
 public class Log {
 
@@ -54,6 +58,19 @@ public class Log {
         }
     }
 
+    public static void d(Object obj, String str1, Object str2, String str3, Object str4) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2 + str3 + str4);
+        }
+    }
+
+    public static void d(Object obj, String str1, Object str2, String str3, Object str4,
+            String str5, Object str6) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2 + str3 + str4 + str5 + str6);
+        }
+    }
+
     public static void v(Object obj, String msg) {
         if (VERBOSE) {
             android.util.Log.v(TAG, getPrefix(obj) + msg);
@@ -66,6 +83,12 @@ public class Log {
         }
     }
 
+    public static void v(Object obj, String str1, Object str2, String str3, Object str4) {
+        if (VERBOSE) {
+            android.util.Log.v(TAG, getPrefix(obj) + str1 + str2 + str3 + str4);
+        }
+    }
+
     public static void e(String tag, String msg, Exception e) {
         android.util.Log.e(TAG, delimit(tag) + msg, e);
     }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.contacts.common.util.TelephonyManagerUtils;
+import com.android.internal.telephony.TelephonyIntents;
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import com.google.i18n.phonenumbers.geocoding.PhoneNumberOfflineGeocoder;
+
+import java.util.Locale;
+
+/**
+ * Memoizes number parsing, geocoding and formatting. The same few numbers are looked up over and
+ * over during a call (caller info query, conference participant list, etc.), and each of these
+ * operations goes through libphonenumber and, for the country, the telephony service.
+ *
+ * Results are keyed by the number, the current country and the current locale. The country and
+ * all the results are dropped when the locale or the SIM changes.
+ *
+ * Thread safe; used from both the main thread and the caller info query thread.
+ */
+class NumberIntelligence {
+
+    private static final String TAG = NumberIntelligence.class.getSimpleName();
+
+    private static final int MAX_NUMBERS = 64;
+
+    /**
+     * Stands in for a null result, which {@link LruCache} can't hold. A distinct instance, so that
+     * comparing by identity doesn't take an actual empty result for it.
+     */
+    private static final String NO_RESULT = new String();
+    private static final ParsedNumber NOT_PARSEABLE = new ParsedNumber(null);
+
+    private static class ParsedNumber {
+        final PhoneNumber number;
+
+        ParsedNumber(PhoneNumber number) {
+            this.number = number;
+        }
+    }
+
+    private static NumberIntelligence sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, ParsedNumber> mParsedNumbers = new LruCache<>(MAX_NUMBERS);
+    private final LruCache<String, String> mGeoDescriptions = new LruCache<>(MAX_NUMBERS);
+    private final LruCache<String, String> mFormattedNumbers = new LruCache<>(MAX_NUMBERS);
+
+    /** The current country, or null if it needs to be looked up again. */
+    private volatile String mCountryIso;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.d(TAG, "Invalidating on " + intent.getAction());
+            invalidate();
+        }
+    };
+
+    public static synchronized NumberIntelligence getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NumberIntelligence(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NumberIntelligence(Context context) {
+        mContext = context;
+        final IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        context.registerReceiver(mReceiver, filter);
+    }
+
+    /**
+     * Returns the country the device is currently in.
+     */
+    public String getCountryIso() {
+        String countryIso = mCountryIso;
+        if (countryIso == null) {
+            countryIso = TelephonyManagerUtils.getCurrentCountryIso(mContext, getLocale());
+            mCountryIso = countryIso;
+        }
+        return countryIso;
+    }
+
+    /**
+     * Parses the number for the current country.
+     *
+     * @return The parsed number, or {@code null} if the number can't be parsed.
+     */
+    public PhoneNumber parse(String number) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        final String countryIso = getCountryIso();
+        final String key = getKey(number, countryIso);
+        ParsedNumber parsed = mParsedNumbers.get(key);
+        if (parsed == null) {
+            try {
+                parsed = new ParsedNumber(PhoneNumberUtil.getInstance().parse(number, countryIso));
+            } catch (NumberParseException e) {
+                Log.v(TAG, "NumberParseException for number '" + number + "'");
+                parsed = NOT_PARSEABLE;
+            }
+            mParsedNumbers.put(key, parsed);
+        }
+        return parsed.number;
+    }
+
+    /**
+     * @return a geographical description string for the specified number.
+     * @see com.android.i18n.phonenumbers.PhoneNumberOfflineGeocoder
+     */
+    public String getGeoDescription(String number) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        final String key = getKey(number, getCountryIso());
+        String description = mGeoDescriptions.get(key);
+        if (description == null) {
+            final PhoneNumber pn = parse(number);
+            description = pn == null ? null : PhoneNumberOfflineGeocoder.getInstance()
+                    .getDescriptionForNumber(pn, getLocale());
+            mGeoDescriptions.put(key, description == null ? NO_RESULT : description);
+        }
+        return description == NO_RESULT ? null : description;
+    }
+
+    /**
+     * Formats the number for display in the current country.
+     *
+     * @param number The number to format.
+     * @param normalizedNumber The E164 form of the number, if known.
+     * @see PhoneNumberHelper#formatNumber(String, String, String)
+     */
+    public String formatNumber(String number, String normalizedNumber) {
+        if (TextUtils.isEmpty(number)) {
+            return number;
+        }
+        final String countryIso = getCountryIso();
+        final String key = getKey(number, countryIso) + "|" + normalizedNumber;
+        String formatted = mFormattedNumbers.get(key);
+        if (formatted == null) {
+            formatted = PhoneNumberHelper.formatNumber(number, normalizedNumber, countryIso);
+            mFormattedNumbers.put(key, formatted == null ? NO_RESULT : formatted);
+        }
+        return formatted == NO_RESULT ? null : formatted;
+    }
+
+    private void invalidate() {
+        mCountryIso = null;
+        mParsedNumbers.evictAll();
+        mGeoDescriptions.evictAll();
+        mFormattedNumbers.evictAll();
+    }
+
+    private Locale getLocale() {
+        return mContext.getResources().getConfiguration().locale;
+    }
+
+    private String getKey(String number, String countryIso) {
+        return number + "|" + countryIso + "|" + getLocale();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telecom.Connection.VideoProvider;
+import android.telecom.InCallService.VideoCall;
+import android.telecom.VideoProfile;
+
+import java.io.PrintWriter;
+
+/**
+ * Drives the {@link Call.SessionModificationState} of a call through upgrades to and
+ * downgrades from video, whichever side asked for them.
+ *
+ * Requests sent by the user are given a bounded time to be answered: a request left unanswered
+ * is reported as timed out, and a response arriving after that is ignored. It is not sent
+ * again, since the first one may still be open in the IMS stack and both would get a response.
+ * Requests which only pause or resume the video are not tracked: their response is passed on
+ * as it arrives. Failures are shown for a short while before the state goes back to
+ * {@link Call.SessionModificationState#NO_REQUEST}, and requests received from the peer which
+ * the user leaves unanswered are dropped after a while, so the call never stays stuck in an
+ * intermediate state.
+ *
+ * The time from sending a request to its response, and from an upgrade being agreed to the
+ * peer's video flowing, are kept in histograms shared by all calls and printed by
+ * {@link InCallServiceImpl}'s dump.
+ *
+ * Used on the main thread only.
+ */
+public class SessionModificationEngine {
+
+    /** How long to wait for the response to a request. */
+    private static final long RESPONSE_TIMEOUT_MS = 10000;
+    /** How long a failed or timed out request is shown for. */
+    private static final long FAILURE_RESET_DELAY_MS = 3000;
+    /** How long a request from the peer waits for the user to accept or decline it. */
+    private static final long RECEIVED_REQUEST_TIMEOUT_MS = 30000;
+    /** How long to wait for the peer's video once an upgrade is agreed. */
+    private static final long MEDIA_TIMEOUT_MS = 30000;
+
+    private static final int MSG_RESPONSE_TIMEOUT = 1;
+    private static final int MSG_RESET_FAILURE = 2;
+    private static final int MSG_RECEIVED_REQUEST_TIMEOUT = 3;
+    private static final int MSG_MEDIA_TIMEOUT = 4;
+
+    private static final LatencyHistogram sRequestToResponse =
+            new LatencyHistogram("request to response");
+    private static final LatencyHistogram sAcceptToMedia =
+            new LatencyHistogram("accept to media flowing");
+    private static int sTimedOutRequests;
+    private static int sIgnoredResponses;
+    private static int sExpiredReceivedRequests;
+    private static int sMediaTimeouts;
+
+    private final Call mCall;
+
+    /** The request waiting for a response, or null. */
+    private VideoProfile mPendingRequest;
+    private boolean mPendingIsUpgrade;
+    private long mRequestTimeMs;
+    /** How many untracked requests, which pause or resume the video, are still unanswered. */
+    private int mUntrackedRequests;
+    /** When an upgrade was agreed, while waiting for the peer's video; 0 otherwise. */
+    private long mAcceptTimeMs;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_RESPONSE_TIMEOUT:
+                    onResponseTimeout();
+                    break;
+                case MSG_RESET_FAILURE:
+                    Log.d(SessionModificationEngine.this, "Clearing failed request of ", mCall);
+                    mCall.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+                    break;
+                case MSG_RECEIVED_REQUEST_TIMEOUT:
+                    onReceivedRequestTimeout();
+                    break;
+                case MSG_MEDIA_TIMEOUT:
+                    Log.w(SessionModificationEngine.this, "No video from peer of " + mCall);
+                    sMediaTimeouts++;
+                    mAcceptTimeMs = 0;
+                    break;
+                default:
+                    Log.e(SessionModificationEngine.this, "Unknown message = " + msg.what);
+            }
+        }
+    };
+
+    SessionModificationEngine(Call call) {
+        mCall = call;
+    }
+
+    /**
+     * Asks the peer to change the video state of the call.
+     */
+    public void request(VideoProfile videoProfile) {
+        request(videoProfile, true /* trackResponse */);
+    }
+
+    /**
+     * Asks the peer to change the video state of the call.
+     *
+     * @param trackResponse Whether to time the response, give up on it after a while and show
+     *        the progress of the request. False for requests which only pause or resume the
+     *        video.
+     */
+    public void request(VideoProfile videoProfile, boolean trackResponse) {
+        final VideoCall videoCall = mCall.getVideoCall();
+        if (videoCall == null) {
+            return;
+        }
+        if (!trackResponse) {
+            mUntrackedRequests++;
+            videoCall.sendSessionModifyRequest(videoProfile);
+            return;
+        }
+
+        mHandler.removeMessages(MSG_RESET_FAILURE);
+        mPendingRequest = videoProfile;
+        mRequestTimeMs = SystemClock.elapsedRealtime();
+        mPendingIsUpgrade = isUpgrade(videoProfile.getVideoState());
+        if (mPendingIsUpgrade) {
+            mCall.setSessionModificationState(Call.SessionModificationState.WAITING_FOR_RESPONSE);
+        }
+        videoCall.sendSessionModifyRequest(videoProfile);
+        mHandler.removeMessages(MSG_RESPONSE_TIMEOUT);
+        mHandler.sendEmptyMessageDelayed(MSG_RESPONSE_TIMEOUT, RESPONSE_TIMEOUT_MS);
+    }
+
+    /**
+     * Accepts the request received from the peer, with the given video state.
+     */
+    public void accept(int videoState) {
+        final VideoCall videoCall = mCall.getVideoCall();
+        if (videoCall == null) {
+            return;
+        }
+
+        mHandler.removeMessages(MSG_RECEIVED_REQUEST_TIMEOUT);
+        videoCall.sendSessionModifyResponse(new VideoProfile(videoState));
+        mCall.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+        if (VideoProfile.VideoState.isVideo(videoState)) {
+            waitForMedia();
+        }
+    }
+
+    /**
+     * Declines the request received from the peer, keeping the current video state.
+     */
+    public void decline() {
+        mHandler.removeMessages(MSG_RECEIVED_REQUEST_TIMEOUT);
+        final VideoCall videoCall = mCall.getVideoCall();
+        if (videoCall != null) {
+            videoCall.sendSessionModifyResponse(new VideoProfile(mCall.getVideoState()));
+        }
+        mCall.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+    }
+
+    /**
+     * Called when the peer asks to upgrade the call to the given video state.
+     */
+    public void onRequestReceived(int videoState) {
+        mHandler.removeMessages(MSG_RESET_FAILURE);
+        mHandler.removeMessages(MSG_RECEIVED_REQUEST_TIMEOUT);
+        mCall.setSessionModificationTo(videoState);
+        if (mCall.getSessionModificationState()
+                == Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST) {
+            mHandler.sendEmptyMessageDelayed(MSG_RECEIVED_REQUEST_TIMEOUT,
+                    RECEIVED_REQUEST_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Called when the peer responds to a request.
+     *
+     * @param requestedProfile The profile the response is for, or null if unknown.
+     * @param succeeded Whether the call now has the video state that was requested.
+     * @param isVideo Whether the call is a video call after the response.
+     * @return Whether the response was expected. A response is ignored if no request is waiting
+     *         for one, e.g. because the request timed out already.
+     */
+    public boolean onResponseReceived(VideoProfile requestedProfile, int status,
+            boolean succeeded, boolean isVideo) {
+        if (mPendingRequest == null || (requestedProfile != null
+                && requestedProfile.getVideoState() != mPendingRequest.getVideoState())) {
+            if (mUntrackedRequests > 0) {
+                mUntrackedRequests--;
+                return true;
+            }
+            Log.w(this, "Ignoring unexpected session modify response for " + mCall);
+            sIgnoredResponses++;
+            return false;
+        }
+        final boolean wasUpgrade = mPendingIsUpgrade;
+        sRequestToResponse.record(SystemClock.elapsedRealtime() - mRequestTimeMs);
+        mPendingRequest = null;
+        mHandler.removeMessages(MSG_RESPONSE_TIMEOUT);
+
+        if (succeeded) {
+            mHandler.removeMessages(MSG_RESET_FAILURE);
+            mCall.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+            if (isVideo && wasUpgrade) {
+                waitForMedia();
+            }
+        } else {
+            fail(wasUpgrade && status == VideoProvider.SESSION_MODIFY_REQUEST_TIMED_OUT
+                    ? Call.SessionModificationState.UPGRADE_TO_VIDEO_REQUEST_TIMED_OUT
+                    : Call.SessionModificationState.REQUEST_FAILED);
+        }
+        return true;
+    }
+
+    /**
+     * Called when the dimensions of the peer's video change, which once an upgrade is agreed
+     * means the video is flowing.
+     */
+    public void onPeerDimensionsChanged(int width, int height) {
+        if (mAcceptTimeMs != 0 && width > 0 && height > 0) {
+            sAcceptToMedia.record(SystemClock.elapsedRealtime() - mAcceptTimeMs);
+            mAcceptTimeMs = 0;
+            mHandler.removeMessages(MSG_MEDIA_TIMEOUT);
+        }
+    }
+
+    /**
+     * Drops the timers of the call, which is gone.
+     */
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        mPendingRequest = null;
+        mUntrackedRequests = 0;
+        mAcceptTimeMs = 0;
+    }
+
+    private boolean isUpgrade(int videoState) {
+        return VideoProfile.VideoState.isVideo(videoState)
+                && !VideoProfile.VideoState.isVideo(mCall.getVideoState());
+    }
+
+    private void onResponseTimeout() {
+        if (mPendingRequest == null) {
+            return;
+        }
+        Log.w(this, "Session modify request timed out for " + mCall);
+        sTimedOutRequests++;
+        mPendingRequest = null;
+        if (mPendingIsUpgrade) {
+            fail(Call.SessionModificationState.UPGRADE_TO_VIDEO_REQUEST_TIMED_OUT);
+            InCallVideoCallListenerNotifier.getInstance().upgradeToVideoFail(
+                    VideoProvider.SESSION_MODIFY_REQUEST_TIMED_OUT, mCall);
+        }
+    }
+
+    private void onReceivedRequestTimeout() {
+        if (mCall.getSessionModificationState()
+                == Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST) {
+            Log.w(this, "Dropping unanswered upgrade request of " + mCall);
+            sExpiredReceivedRequests++;
+            mCall.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
+        }
+    }
+
+    private void fail(int state) {
+        mCall.setSessionModificationState(state);
+        mHandler.removeMessages(MSG_RESET_FAILURE);
+        mHandler.sendEmptyMessageDelayed(MSG_RESET_FAILURE, FAILURE_RESET_DELAY_MS);
+    }
+
+    private void waitForMedia() {
+        mAcceptTimeMs = SystemClock.elapsedRealtime();
+        mHandler.removeMessages(MSG_MEDIA_TIMEOUT);
+        mHandler.sendEmptyMessageDelayed(MSG_MEDIA_TIMEOUT, MEDIA_TIMEOUT_MS);
+    }
+
+    /**
+     * Prints the latencies and failures of the session modifications of all calls.
+     */
+    public static void dump(PrintWriter pw) {
+        pw.println("SessionModificationEngine:");
+        sRequestToResponse.dump(pw, "  ");
+        sAcceptToMedia.dump(pw, "  ");
+        pw.println("  timed out requests: " + sTimedOutRequests
+                + ", ignored responses: " + sIgnoredResponses
+                + ", expired received requests: " + sExpiredReceivedRequests
+                + ", media timeouts: " + sMediaTimeouts);
+    }
+}
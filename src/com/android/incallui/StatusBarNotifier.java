@@ -87,7 +87,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
             mState = State.FIRED;
             updateNotification(
                     InCallPresenter.getInstance().getInCallState(),
-                    InCallPresenter.getInstance().getCallList());
+                    InCallPresenter.getInstance().getCallListSnapshot());
         }
     };
 
@@ -114,10 +114,11 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
      * Creates notifications according to the state we receive from {@link InCallPresenter}.
      */
     @Override
-    public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
+    public void onStateChange(InCallState oldState, InCallState newState,
+            CallListSnapshot snapshot) {
         Log.d(this, "onStateChange");
 
-        updateNotification(newState, callList);
+        updateNotification(newState, snapshot);
     }
 
     /**
@@ -139,15 +140,15 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
      * update or cancel the in-call notification based on the current
      * phone state.
      *
-     * @see #updateInCallNotification(InCallState,CallList)
+     * @see #updateInCallNotification(InCallState,CallListSnapshot)
      */
-    public void updateNotification(InCallState state, CallList callList) {
-        updateInCallNotification(state, callList);
+    public void updateNotification(InCallState state, CallListSnapshot snapshot) {
+        updateInCallNotification(state, snapshot);
     }
 
     /**
      * Take down the in-call notification.
-     * @see #updateInCallNotification(InCallState,CallList)
+     * @see #updateInCallNotification(InCallState,CallListSnapshot)
      */
     private void cancelInCall() {
         Log.d(this, "cancelInCall()...");
@@ -170,10 +171,10 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
      * status bar notification based on the current telephony state, or
      * cancels the notification if the phone is totally idle.
      */
-    private void updateInCallNotification(final InCallState state, CallList callList) {
+    private void updateInCallNotification(final InCallState state, CallListSnapshot snapshot) {
         Log.d(this, "updateInCallNotification...");
 
-        Call call = getCallToShow(callList);
+        Call call = getCallToShow(snapshot);
 
         // Whether we have an outgoing call but the incall UI has yet to show up.
         // Since we don't normally show a notification while the incall screen is
@@ -264,7 +265,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         // This can get called to update an existing notification after contact information has come
         // back. However, it can happen much later. Before we continue, we need to make sure that
         // the call being passed in is still the one we want to show in the notification.
-        final Call call = getCallToShow(CallList.getInstance());
+        final Call call = getCallToShow(InCallPresenter.getInstance().getCallListSnapshot());
         if (call == null || !call.getId().equals(originalCall.getId())) {
             return;
         }
@@ -439,7 +440,9 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
                     R.drawable.img_conference);
         }
         if (contactInfo.photo != null && (contactInfo.photo instanceof BitmapDrawable)) {
-            largeIcon = ((BitmapDrawable) contactInfo.photo).getBitmap();
+            // Prefer the icon sized rendition loaded along with the photo, if there is one.
+            largeIcon = contactInfo.photoIcon != null ? contactInfo.photoIcon
+                    : ((BitmapDrawable) contactInfo.photo).getBitmap();
         }
 
         if (largeIcon != null) {
@@ -447,7 +450,9 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
                     android.R.dimen.notification_large_icon_height);
             final int width = (int) mContext.getResources().getDimension(
                     android.R.dimen.notification_large_icon_width);
-            largeIcon = Bitmap.createScaledBitmap(largeIcon, width, height, false);
+            if (largeIcon.getWidth() != width || largeIcon.getHeight() != height) {
+                largeIcon = Bitmap.createScaledBitmap(largeIcon, width, height, false);
+            }
         }
 
         return largeIcon;
@@ -509,19 +514,19 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     /**
      * Gets the most relevant call to display in the notification.
      */
-    private Call getCallToShow(CallList callList) {
-        if (callList == null) {
+    private Call getCallToShow(CallListSnapshot snapshot) {
+        if (snapshot == null) {
             return null;
         }
-        Call call = callList.getIncomingCall();
+        Call call = snapshot.getIncomingCall();
         if (call == null) {
-            call = callList.getOutgoingCall();
+            call = snapshot.getOutgoingCall();
         }
         if (call == null) {
-            call = callList.getVideoUpgradeRequestCall();
+            call = snapshot.getVideoUpgradeRequestCall();
         }
         if (call == null) {
-            call = callList.getActiveOrBackgroundCall();
+            call = snapshot.getActiveOrBackgroundCall();
         }
         return call;
     }
@@ -63,12 +63,18 @@ final class TelecomAdapter implements InCallPhoneListener {
         mPhone = null;
     }
 
+    private void recordCommand(String callId, int command, int arg) {
+        EventJournal.getInstance().record(EventJournal.EVENT_TELECOM_COMMAND, callId, command,
+                arg);
+    }
+
     private android.telecom.Call getTelecommCallById(String callId) {
         final Call call = CallList.getInstance().getCallById(callId);
         return call == null ? null : call.getTelecommCall();
     }
 
     void answerCall(String callId, int videoState) {
+        recordCommand(callId, EventJournal.COMMAND_ANSWER, videoState);
         if (mPhone != null) {
             final android.telecom.Call call = getTelecommCallById(callId);
             if (call != null) {
@@ -82,6 +88,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void deflectCall(String callId, String number) {
+        recordCommand(callId, EventJournal.COMMAND_DEFLECT, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).deflectCall(number);
         } else {
@@ -90,6 +97,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void rejectCall(String callId, boolean rejectWithMessage, String message) {
+        recordCommand(callId, EventJournal.COMMAND_REJECT, rejectWithMessage ? 1 : 0);
         if (mPhone != null) {
             final android.telecom.Call call = getTelecommCallById(callId);
             if (call != null) {
@@ -103,6 +111,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void disconnectCall(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_DISCONNECT, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).disconnect();
         } else {
@@ -111,6 +120,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void holdCall(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_HOLD, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).hold();
         } else {
@@ -119,6 +129,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void unholdCall(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_UNHOLD, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).unhold();
         } else {
@@ -127,6 +138,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void mute(boolean shouldMute) {
+        recordCommand(null, EventJournal.COMMAND_MUTE, shouldMute ? 1 : 0);
         if (mPhone != null) {
             mPhone.setMuted(shouldMute);
         } else {
@@ -135,6 +147,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void setAudioRoute(int route) {
+        recordCommand(null, EventJournal.COMMAND_AUDIO_ROUTE, route);
         if (mPhone != null) {
             mPhone.setAudioRoute(route);
         } else {
@@ -143,6 +156,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void turnOnProximitySensor() {
+        recordCommand(null, EventJournal.COMMAND_PROXIMITY_ON, 0);
         if (mPhone != null) {
             mPhone.setProximitySensorOn();
         } else {
@@ -151,6 +165,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void turnOffProximitySensor(boolean screenOnImmediately) {
+        recordCommand(null, EventJournal.COMMAND_PROXIMITY_OFF, screenOnImmediately ? 1 : 0);
         if (mPhone != null) {
             mPhone.setProximitySensorOff(screenOnImmediately);
         } else {
@@ -159,6 +174,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void switchToOtherActiveSub(String subId, boolean retainLch) {
+        recordCommand(null, EventJournal.COMMAND_SWITCH_SUB, retainLch ? 1 : 0);
         if (mPhone != null) {
             mPhone.switchToOtherActiveSub(subId, retainLch);
         } else {
@@ -167,6 +183,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void separateCall(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_SEPARATE, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).splitFromConference();
         } else {
@@ -175,6 +192,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void merge(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_MERGE, 0);
         if (mPhone != null) {
             android.telecom.Call call = getTelecommCallById(callId);
             List<android.telecom.Call> conferenceable = call.getConferenceableCalls();
@@ -192,6 +210,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void swap(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_SWAP, 0);
         if (mPhone != null) {
             android.telecom.Call call = getTelecommCallById(callId);
             int capabilities = call.getDetails().getCallCapabilities();
@@ -225,6 +244,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void playDtmfTone(String callId, char digit) {
+        recordCommand(callId, EventJournal.COMMAND_PLAY_DTMF, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).playDtmfTone(digit);
         } else {
@@ -233,6 +253,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void stopDtmfTone(String callId) {
+        recordCommand(callId, EventJournal.COMMAND_STOP_DTMF, 0);
         if (mPhone != null) {
             getTelecommCallById(callId).stopDtmfTone();
         } else {
@@ -241,6 +262,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void postDialContinue(String callId, boolean proceed) {
+        recordCommand(callId, EventJournal.COMMAND_POST_DIAL_CONTINUE, proceed ? 1 : 0);
         if (mPhone != null) {
             getTelecommCallById(callId).postDialContinue(proceed);
         } else {
@@ -250,6 +272,7 @@ final class TelecomAdapter implements InCallPhoneListener {
 
     void phoneAccountSelected(String callId, PhoneAccountHandle accountHandle,
             boolean setDefault) {
+        recordCommand(callId, EventJournal.COMMAND_ACCOUNT_SELECTED, setDefault ? 1 : 0);
         if (mPhone != null) {
             getTelecommCallById(callId).phoneAccountSelected(accountHandle, setDefault);
         }  else {
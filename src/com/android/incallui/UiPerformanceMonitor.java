@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.text.format.DateFormat;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Keeps frame time and jank metrics of the in-call UI in memory, so regressions can be spotted
+ * from a bug report (dumpsys activity service InCallServiceImpl) without attaching a profiler.
+ *
+ * Two kinds of measurements are kept:
+ * <ul>
+ * <li>Draw times of a view, recorded on every frame, in a ring buffer of the most recent
+ * frames.</li>
+ * <li>Operations which span one or more frames, such as an animation or the startup of the
+ * activity, with per-operation counts, averages and maximums, and a ring buffer of the most
+ * recent ones.</li>
+ * </ul>
+ * While an operation is in progress, or a view recently reported a draw, {@link Choreographer}
+ * frame callbacks count the frames that were missed. Frame callbacks are not requested when the
+ * UI is idle. An operation which doesn't end, e.g. because its view was never drawn, is dropped
+ * after a while, so the frame callbacks don't run forever.
+ *
+ * Measurements are made on the main thread; the dump happens on a binder thread.
+ */
+public class UiPerformanceMonitor {
+
+    /** Drawing {@link com.android.incallui.widget.multiwaveview.GlowPadView}. */
+    public static final int OP_GLOW_PAD_DRAW = 0;
+    /** {@link CallCardFragment#setCallCardVisible}, until its animation ends. */
+    public static final int OP_CALL_CARD_VISIBILITY = 1;
+    /** {@link CallCardFragment#animateForNewOutgoingCall}, until its animation ends. */
+    public static final int OP_OUTGOING_CALL_ANIMATION = 2;
+    /** {@link InCallActivity#onCreate}, until its first frame. */
+    public static final int OP_ACTIVITY_STARTUP = 3;
+    /** {@link InCallServiceImpl#onPhoneCreated}, until the first frame of the call card. */
+    public static final int OP_PHONE_CREATED_TO_CALL_CARD = 4;
+    /** A frame that took longer than the frame interval. */
+    private static final int OP_JANK = 5;
+
+    private static final String[] OP_NAMES = {
+        "GlowPadView.onDraw",
+        "CallCardFragment.setCallCardVisible",
+        "CallCardFragment.animateForNewOutgoingCall",
+        "InCallActivity startup",
+        "onPhoneCreated to call card frame",
+        "jank",
+    };
+    private static final int OP_COUNT = OP_NAMES.length;
+
+    private static final int MAX_FRAMES = 120;
+    private static final int MAX_EVENTS = 64;
+
+    /** How long an operation may stay in progress before it is dropped. */
+    private static final long MAX_OP_NANOS = 10 * 1000 * 1000 * 1000L;
+    /** How long frames are monitored after a view reports a draw. */
+    private static final long DRAW_MONITOR_WINDOW_NANOS = 500 * 1000 * 1000L;
+    private static final float DEFAULT_REFRESH_RATE = 60.0f;
+
+    private static final double NANOS_PER_MILLI = 1000 * 1000.0;
+
+    private static UiPerformanceMonitor sInstance;
+
+    // Per-operation statistics.
+    private final int[] mOpCounts = new int[OP_COUNT];
+    private final long[] mOpTotalNanos = new long[OP_COUNT];
+    private final long[] mOpMaxNanos = new long[OP_COUNT];
+    /** Start time of the operations in progress, or 0. */
+    private final long[] mOpStartNanos = new long[OP_COUNT];
+    private int mOpsInProgress;
+    private int mDroppedOps;
+
+    // Most recent draw times.
+    private final long[] mFrameNanos = new long[MAX_FRAMES];
+    private int mFrameCount;
+
+    // Most recent operations, with the wall clock time they ended at.
+    private final int[] mEventOps = new int[MAX_EVENTS];
+    private final long[] mEventTimes = new long[MAX_EVENTS];
+    private final long[] mEventNanos = new long[MAX_EVENTS];
+    private int mEventCount;
+
+    // Frame monitoring.
+    private long mFrameIntervalNanos = (long) (1000 * 1000 * 1000L / DEFAULT_REFRESH_RATE);
+    private boolean mFrameCallbackPosted;
+    private long mLastFrameTimeNanos;
+    private long mMonitorUntilNanos;
+    private long mMonitoredFrames;
+    private long mJankyFrames;
+    private long mMissedFrames;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos);
+        }
+    };
+
+    public static synchronized UiPerformanceMonitor getInstance() {
+        if (sInstance == null) {
+            sInstance = new UiPerformanceMonitor();
+        }
+        return sInstance;
+    }
+
+    private UiPerformanceMonitor() {
+    }
+
+    /**
+     * Returns the current time, to pass to {@link #recordDraw}.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Sets the refresh rate of the display, which determines when a frame counts as missed.
+     */
+    public synchronized void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            mFrameIntervalNanos = (long) (1000 * 1000 * 1000L / refreshRate);
+        }
+    }
+
+    /**
+     * Records the time it took to draw a frame of a view.
+     *
+     * @param startNanos The value of {@link #now()} when the draw started.
+     */
+    public synchronized void recordDraw(int op, long startNanos) {
+        final long now = now();
+        final long duration = now - startNanos;
+        mFrameNanos[mFrameCount % MAX_FRAMES] = duration;
+        mFrameCount++;
+        addToStats(op, duration);
+
+        mMonitorUntilNanos = now + DRAW_MONITOR_WINDOW_NANOS;
+        monitorFrames();
+    }
+
+    /**
+     * Marks the start of an operation. Restarts the operation if it is already in progress.
+     */
+    public synchronized void begin(int op) {
+        if (mOpStartNanos[op] == 0) {
+            mOpsInProgress++;
+        }
+        mOpStartNanos[op] = now();
+        monitorFrames();
+    }
+
+    /**
+     * Marks the end of an operation. Ignored if the operation is not in progress.
+     */
+    public synchronized void end(int op) {
+        final long start = mOpStartNanos[op];
+        if (start == 0) {
+            return;
+        }
+        mOpStartNanos[op] = 0;
+        mOpsInProgress--;
+
+        final long duration = now() - start;
+        addToStats(op, duration);
+        addEvent(op, duration);
+        Log.d(this, OP_NAMES[op] + " took " + formatMillis(duration) + "ms");
+    }
+
+    /**
+     * Drops an operation which won't end, without recording it. Ignored if the operation is not
+     * in progress.
+     */
+    public synchronized void cancel(int op) {
+        if (mOpStartNanos[op] != 0) {
+            mOpStartNanos[op] = 0;
+            mOpsInProgress--;
+        }
+    }
+
+    private void addToStats(int op, long duration) {
+        mOpCounts[op]++;
+        mOpTotalNanos[op] += duration;
+        mOpMaxNanos[op] = Math.max(mOpMaxNanos[op], duration);
+    }
+
+    private void addEvent(int op, long duration) {
+        final int index = mEventCount % MAX_EVENTS;
+        mEventOps[index] = op;
+        mEventTimes[index] = System.currentTimeMillis();
+        mEventNanos[index] = duration;
+        mEventCount++;
+    }
+
+    private void monitorFrames() {
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private synchronized void onFrame(long frameTimeNanos) {
+        mFrameCallbackPosted = false;
+
+        if (mLastFrameTimeNanos != 0) {
+            final long interval = frameTimeNanos - mLastFrameTimeNanos;
+            final long missed = (interval + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+            mMonitoredFrames++;
+            if (missed > 0) {
+                mJankyFrames++;
+                mMissedFrames += missed;
+                addToStats(OP_JANK, interval);
+                addEvent(OP_JANK, interval);
+            }
+        }
+
+        if (mOpsInProgress > 0) {
+            dropExpiredOps();
+        }
+        if (mOpsInProgress > 0 || frameTimeNanos < mMonitorUntilNanos) {
+            mLastFrameTimeNanos = frameTimeNanos;
+            monitorFrames();
+        } else {
+            // The gap until monitoring resumes is idle time, not jank.
+            mLastFrameTimeNanos = 0;
+        }
+    }
+
+    private void dropExpiredOps() {
+        final long now = now();
+        for (int op = 0; op < OP_COUNT; op++) {
+            if (mOpStartNanos[op] != 0 && now - mOpStartNanos[op] > MAX_OP_NANOS) {
+                Log.d(this, OP_NAMES[op] + " did not end, dropping it");
+                mOpStartNanos[op] = 0;
+                mOpsInProgress--;
+                mDroppedOps++;
+            }
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("UiPerformanceMonitor:");
+        pw.println("  frame interval: " + formatMillis(mFrameIntervalNanos) + "ms");
+        pw.println("  monitored frames: " + mMonitoredFrames + ", janky: " + mJankyFrames
+                + ", missed: " + mMissedFrames);
+        pw.println("  dropped operations: " + mDroppedOps);
+
+        pw.println("  operations:");
+        for (int op = 0; op < OP_COUNT; op++) {
+            final int count = mOpCounts[op];
+            if (count == 0) {
+                continue;
+            }
+            pw.println("    " + OP_NAMES[op] + ": count=" + count
+                    + " avg=" + formatMillis(mOpTotalNanos[op] / count) + "ms"
+                    + " max=" + formatMillis(mOpMaxNanos[op]) + "ms"
+                    + (mOpStartNanos[op] != 0 ? " (in progress)" : ""));
+        }
+
+        final int frames = Math.min(mFrameCount, MAX_FRAMES);
+        if (frames > 0) {
+            final long[] sorted = Arrays.copyOf(mFrameNanos, frames);
+            Arrays.sort(sorted);
+            pw.println("  last " + frames + " draws: p50=" + formatMillis(sorted[frames / 2])
+                    + "ms p90=" + formatMillis(sorted[frames * 9 / 10])
+                    + "ms max=" + formatMillis(sorted[frames - 1]) + "ms");
+        }
+
+        final int events = Math.min(mEventCount, MAX_EVENTS);
+        pw.println("  last " + events + " operations:");
+        for (int i = mEventCount - events; i < mEventCount; i++) {
+            final int index = i % MAX_EVENTS;
+            pw.println("    " + DateFormat.format("MM-dd kk:mm:ss", mEventTimes[index])
+                    + " " + OP_NAMES[mEventOps[index]] + " "
+                    + formatMillis(mEventNanos[index]) + "ms");
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%.1f", nanos / NANOS_PER_MILLI);
+    }
+}
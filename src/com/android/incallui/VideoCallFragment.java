@@ -186,6 +186,11 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
             mTextureView.setSurfaceTextureListener(this);
             mTextureView.setOnClickListener(this);
 
+            if (mSavedSurfaceTexture == null) {
+                // Use a pre-warmed texture if there is one, so the surface can be handed to the
+                // video call now rather than once the view is laid out.
+                mSavedSurfaceTexture = VideoSurfacePool.getInstance().obtain(mSurfaceId);
+            }
             final boolean areSameSurfaces =
                     Objects.equal(mSavedSurfaceTexture, mTextureView.getSurfaceTexture());
             Log.d(this, "recreateView: SavedSurfaceTexture=" + mSavedSurfaceTexture
@@ -265,7 +270,8 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
          * Handles {@link SurfaceTexture} destruct callback, indicating that it has been destroyed.
          *
          * @param surfaceTexture The {@link SurfaceTexture}.
-         * @return {@code True} if the {@link TextureView} can release the {@link SurfaceTexture}.
+         * @return {@code False}; the {@link SurfaceTexture} is either kept for when the view is
+         *         recreated, or returned to the {@link VideoSurfacePool}.
          */
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
@@ -286,8 +292,14 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
                     mSavedSurface.release();
                     mSavedSurface = null;
                 }
+                // Keep the texture for the next video call rather than letting the view
+                // release it.
+                VideoSurfacePool.getInstance().recycle(mSurfaceId, surfaceTexture);
+                if (surfaceTexture == mSavedSurfaceTexture) {
+                    mSavedSurfaceTexture = null;
+                }
             }
-            return mIsDoneWithSurface;
+            return false;
         }
 
         private void onSurfaceDestroyed() {
@@ -304,7 +316,9 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
          */
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
-            // Not Handled
+            if (mSurfaceId == SURFACE_DISPLAY) {
+                VideoSurfacePool.getInstance().onRemoteFrame();
+            }
         }
 
         /**
@@ -332,7 +346,7 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
                 mSavedSurface = null;
             }
             if (mSavedSurfaceTexture != null) {
-                mSavedSurfaceTexture.release();
+                VideoSurfacePool.getInstance().recycle(mSurfaceId, mSavedSurfaceTexture);
                 mSavedSurfaceTexture = null;
             }
         }
@@ -897,18 +911,57 @@ public class VideoCallFragment extends BaseFragment<VideoCallPresenter,
                 return;
             }
 
-            ViewGroup.LayoutParams params = preview.getLayoutParams();
-            params.width = width;
-            params.height = height;
-            preview.setLayoutParams(params);
-
             int rotation = InCallPresenter.toRotationAngle(getCurrentRotation());
             int rotationAngle = 360 - rotation;
-            preview.setRotation(rotationAngle);
             Log.d(this, "setPreviewSize: rotation=" + rotation +
                     " rotationAngle=" + rotationAngle);
 
+            if (preview.isLaidOut()) {
+                setPreviewTransform(preview, width, height, rotationAngle);
+            } else {
+                // Not laid out yet, so the size is free; clear any transform of a previous size.
+                ViewGroup.LayoutParams params = preview.getLayoutParams();
+                params.width = width;
+                params.height = height;
+                preview.setLayoutParams(params);
+                setPreviewTransform(preview, width, height, rotationAngle);
+            }
+        }
+    }
+
+    /**
+     * Resizes and rotates the laid out preview with its transform only, so there is no layout
+     * pass and the surface and its buffers are left alone. The preview is scaled from its
+     * bottom-right corner, where it is anchored in the layout, and rotated around its center.
+     *
+     * @param preview The preview view.
+     * @param width The width to show the preview at.
+     * @param height The height to show the preview at.
+     * @param rotation The rotation of the preview, in degrees.
+     */
+    private void setPreviewTransform(TextureView preview, int width, int height, float rotation) {
+        final ViewGroup.LayoutParams params = preview.getLayoutParams();
+        final int layoutWidth = preview.isLaidOut() ? preview.getWidth() : params.width;
+        final int layoutHeight = preview.isLaidOut() ? preview.getHeight() : params.height;
+        if (layoutWidth <= 0 || layoutHeight <= 0) {
+            return;
         }
+
+        preview.setPivotX(layoutWidth);
+        preview.setPivotY(layoutHeight);
+        preview.setScaleX((float) width / layoutWidth);
+        preview.setScaleY((float) height / layoutHeight);
+        preview.setRotation(rotation);
+
+        // Rotating around the pivot moves the center of the preview; move it back. The center is
+        // half the size away from the pivot.
+        final double radians = Math.toRadians(rotation);
+        final float cos = (float) Math.cos(radians);
+        final float sin = (float) Math.sin(radians);
+        final float dx = width / 2f;
+        final float dy = height / 2f;
+        preview.setTranslationX(cos * dx - sin * dy - dx);
+        preview.setTranslationY(sin * dx + cos * dy - dy);
     }
 
     @Override
@@ -20,12 +20,9 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Point;
 import android.os.AsyncResult;
-import android.os.Handler;
-import android.os.Message;
 import android.telecom.AudioState;
 import android.telecom.CameraCapabilities;
 import android.telecom.Connection;
-import android.telecom.Connection.VideoProvider;
 import android.telecom.InCallService.VideoCall;
 import android.telecom.VideoProfile;
 import android.view.Surface;
@@ -40,6 +37,7 @@ import com.android.incallui.InCallVideoCallListenerNotifier.VideoEventListener;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.TelephonyProperties;
 import com.android.incallui.InCallCameraManager.CameraSelectionListener;
+import com.android.incallui.CameraCapabilityRegistry.CameraInfo;
 import com.google.common.base.Preconditions;
 
 import java.util.Objects;
@@ -168,29 +166,11 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
      */
     private int mCurrentCallSubstate;
 
-    /** Handler which resets request state to NO_REQUEST after an interval. */
-    VideoCallHandler mSessionModificationResetHandler;
-
-    private class VideoCallHandler extends Handler {
-        @Override
-        public void handleMessage(Message msg) {
-            Log.d(this, "Message received: what = " + msg.what);
-            switch (msg.what) {
-                case EVENT_CLEAR_SESSION_MODIFY_REQUEST:
-                    if (msg.obj != null && msg.obj instanceof Call) {
-                        Call call = (Call) msg.obj;
-                        Log.d(this, "Clearing sessionModificationState to NO_REQUEST");
-                        call.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
-                    }
-                    break;
-                default:
-                    Log.e(this, "Unknown message = " + msg.what);
-            }
-        }
-    };
-
-    private static final long SESSION_MODIFICATION_RESET_DELAY_MS = 3000;
-    private static final int EVENT_CLEAR_SESSION_MODIFY_REQUEST = 0;
+    /**
+     * Adapts the quality of the video sent to the conditions of the call.
+     */
+    private final VideoQualityController mQualityController =
+            new VideoQualityController(new VideoQualityController.DefaultPolicy());
 
     /**
      * Initializes the presenter.
@@ -201,7 +181,6 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         mContext = Preconditions.checkNotNull(context);
         mMinimumVideoDimension = mContext.getResources().getDimension(
                 R.dimen.video_preview_small_dimension);
-        mSessionModificationResetHandler = new VideoCallHandler();
     }
 
     /**
@@ -249,6 +228,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         InCallVideoCallListenerNotifier.getInstance().removeSessionModificationListener(this);
         InCallPresenter.getInstance().getInCallCameraManager().
             removeCameraSelectionListener(this);
+        mQualityController.stop();
     }
 
     /**
@@ -374,18 +354,18 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
     public void onIncomingCall(InCallPresenter.InCallState oldState,
             InCallPresenter.InCallState newState, Call call) {
         // same logic should happen as with onStateChange()
-        onStateChange(oldState, newState, CallList.getInstance());
+        onStateChange(oldState, newState, InCallPresenter.getInstance().getCallListSnapshot());
     }
 
     /**
      * Handles state changes (including incoming calls)
      *
      * @param newState The in call state.
-     * @param callList The call list.
+     * @param snapshot Snapshot of the call list.
      */
     @Override
     public void onStateChange(InCallPresenter.InCallState oldState,
-            InCallPresenter.InCallState newState, CallList callList) {
+            InCallPresenter.InCallState newState, CallListSnapshot snapshot) {
         Log.d(this, "onStateChange oldState" + oldState + " newState=" + newState +
                 " isVideoMode=" + isVideoMode());
 
@@ -406,16 +386,16 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
             // with a waiting call, since user may choose to ignore/decline the waiting call and
             // this should have no impact on current active video call, that is, we should not
             // change the camera or UI unless the waiting VT call becomes active.
-            primary = callList.getActiveCall();
+            primary = snapshot.getActiveCall();
             if (!CallUtils.isActiveVideoCall(primary)) {
-                primary = callList.getIncomingCall();
+                primary = snapshot.getIncomingCall();
             }
         } else if (newState == InCallPresenter.InCallState.OUTGOING) {
-            primary = callList.getOutgoingCall();
+            primary = snapshot.getOutgoingCall();
         } else if (newState == InCallPresenter.InCallState.PENDING_OUTGOING) {
-            primary = callList.getPendingOutgoingCall();
+            primary = snapshot.getPendingOutgoingCall();
         } else if (newState == InCallPresenter.InCallState.INCALL) {
-            primary = callList.getActiveCall();
+            primary = snapshot.getActiveCall();
         }
 
         final boolean primaryChanged = !Objects.equals(mPrimaryCall, primary);
@@ -644,6 +624,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
             }
 
             enableCamera(videoCall, isCameraRequired(newVideoState));
+            mQualityController.start(mContext, videoCall, newVideoState);
         }
         mCurrentVideoState = newVideoState;
         updateAudioMode(true);
@@ -703,6 +684,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
                     getInCallCameraManager();
             videoCall.setCamera(cameraManager.getActiveCameraId());
             mPreviewSurfaceState = PreviewSurfaceState.CAMERA_SET;
+            setCachedPreviewSize(cameraManager.getActiveCameraInfo());
 
             videoCall.requestCameraCapabilities();
         } else {
@@ -759,6 +741,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
 
         showVideoUi(VideoProfile.VideoState.AUDIO_ONLY);
         enableCamera(mVideoCall, false);
+        mQualityController.stop();
 
         Log.d(this, "exitVideoMode mIsFullScreen: " + mIsFullScreen);
         if (mIsFullScreen) {
@@ -828,6 +811,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
             Log.e(this, "Current call is not equal to primary call. Bail out");
             return;
         }
+        mQualityController.onPeerDimensionsChanged(width, height);
 
         // Change size of display surface to match the peer aspect ratio
         if (width > 0 && height > 0) {
@@ -846,6 +830,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         if (!call.equals(mPrimaryCall)) {
             return;
         }
+        mQualityController.onVideoQualityChanged(videoQuality);
 
         VideoCallUi ui = getUi();
         if (ui == null) {
@@ -933,6 +918,23 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
             return;
         }
         enableZoomControl(false);
+        if (isVideoMode()) {
+            setCachedPreviewSize(InCallPresenter.getInstance().getInCallCameraManager()
+                    .getActiveCameraInfo());
+        }
+    }
+
+    /**
+     * Sizes the preview for a camera from its cached capabilities, so it has the right shape
+     * before the video provider reports the capabilities of the camera, which resize it again if
+     * needed.
+     *
+     * @param camera The camera, or null if unknown.
+     */
+    private void setCachedPreviewSize(CameraInfo camera) {
+        if (camera != null) {
+            setPreviewSize(mDeviceOrientation, camera.getVideoAspectRatio());
+        }
     }
 
     /**
@@ -959,6 +961,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
     @Override
     public void onCallDataUsageChange(int dataUsage) {
         Log.d(this, "onCallDataUsageChange dataUsage=" + dataUsage);
+        mQualityController.onDataUsageChanged(dataUsage);
         VideoCallUi ui = getUi();
         if (ui == null) {
             Log.e(this, "onCallDataUsageChange: VideoCallUi is null");
@@ -984,13 +987,6 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         if (mPrimaryCall == null || !Call.areSame(mPrimaryCall, call)) {
             Log.w(this, "UpgradeToVideoRequest received for non-primary call");
         }
-
-        if (call == null) {
-            return;
-        }
-
-        mSessionModificationResetHandler.removeMessages(EVENT_CLEAR_SESSION_MODIFY_REQUEST);
-        call.setSessionModificationTo(videoState);
     }
 
     @Override
@@ -999,12 +995,6 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         if (mPrimaryCall == null || !Call.areSame(mPrimaryCall, call)) {
             Log.w(this, "UpgradeToVideoSuccess received for non-primary call");
         }
-
-        if (call == null) {
-            return;
-        }
-
-        call.setSessionModificationState(Call.SessionModificationState.NO_REQUEST);
     }
 
     @Override
@@ -1013,24 +1003,6 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         if (mPrimaryCall == null || !Call.areSame(mPrimaryCall, call)) {
             Log.w(this, "UpgradeToVideoFail received for non-primary call");
         }
-
-        if (call == null) {
-            return;
-        }
-
-        mSessionModificationResetHandler.removeMessages(EVENT_CLEAR_SESSION_MODIFY_REQUEST);
-        if (status == VideoProvider.SESSION_MODIFY_REQUEST_TIMED_OUT) {
-            call.setSessionModificationState(
-                    Call.SessionModificationState.UPGRADE_TO_VIDEO_REQUEST_TIMED_OUT);
-        } else {
-            call.setSessionModificationState(Call.SessionModificationState.REQUEST_FAILED);
-
-            // Start handler to change state from REQUEST_FAILED to NO_REQUEST after an interval.
-            Message msg = mSessionModificationResetHandler.obtainMessage(
-                    EVENT_CLEAR_SESSION_MODIFY_REQUEST, call);
-            mSessionModificationResetHandler.sendMessageDelayed(msg
-                    , SESSION_MODIFICATION_RESET_DELAY_MS);
-        }
     }
 
     @Override
@@ -149,23 +149,24 @@ class VideoPauseController implements InCallStateListener, IncomingCallListener,
     /**
      * The function gets called when call state changes.
      * @param state Phone state.
-     * @param callList List of current call.
+     * @param snapshot Snapshot of the current calls.
      */
     @Override
-    public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
+    public void onStateChange(InCallState oldState, InCallState newState,
+            CallListSnapshot snapshot) {
         log("onStateChange, OldState=" + oldState + " NewState=" + newState);
 
         Call call = null;
         if (newState == InCallState.INCOMING) {
-            call = callList.getIncomingCall();
+            call = snapshot.getIncomingCall();
         } else if (newState == InCallState.WAITING_FOR_ACCOUNT) {
-            call = callList.getWaitingForAccountCall();
+            call = snapshot.getWaitingForAccountCall();
         } else if (newState == InCallState.PENDING_OUTGOING) {
-            call = callList.getPendingOutgoingCall();
+            call = snapshot.getPendingOutgoingCall();
         } else if (newState == InCallState.OUTGOING) {
-            call = callList.getOutgoingCall();
+            call = snapshot.getOutgoingCall();
         } else {
-            call = callList.getActiveCall();
+            call = snapshot.getActiveCall();
         }
 
         boolean hasPrimaryCallChanged = !areSame(call, mPrimaryCallContext);
@@ -324,10 +325,12 @@ class VideoPauseController implements InCallStateListener, IncomingCallListener,
     private void sendRequest(Call call, boolean resume) {
         if (resume) {
             log("sending resume request, call=" + call);
-            call.getVideoCall().sendSessionModifyRequest(CallUtils.makeVideoUnPauseProfile(call));
+            call.getSessionModificationEngine().request(CallUtils.makeVideoUnPauseProfile(call),
+                    false /* trackResponse */);
         } else {
             log("sending pause request, call=" + call);
-            call.getVideoCall().sendSessionModifyRequest(CallUtils.makeVideoPauseProfile(call));
+            call.getSessionModificationEngine().request(CallUtils.makeVideoPauseProfile(call),
+                    false /* trackResponse */);
         }
     }
 
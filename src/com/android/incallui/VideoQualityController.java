@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telecom.InCallService.VideoCall;
+import android.telecom.VideoProfile;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lowers the quality of the video sent in a video call when the network, the temperature of the
+ * device or its battery can't sustain it, and raises it again once they can.
+ *
+ * The conditions of the call are collected into {@link Conditions}, from which a {@link Policy}
+ * picks the {@link VideoProfile} quality to ask for. A change of quality is requested from the
+ * peer with a session modify request which keeps the video state of the call; the video
+ * provider picks the capture resolution and frame rate for that quality. Requests are rate
+ * limited, so a quality doesn't flap while a condition hovers around a threshold. A quality held
+ * down by the feedback of the call is probed upwards on a timer, since that feedback drops along
+ * with the quality and would otherwise hold it down for good.
+ *
+ * Peers which don't answer such requests are left with one open until it times out, and may
+ * wake their screen up for it, so no request is sent unless the
+ * {@code persist.radio.videoquality.adapt} property is set.
+ *
+ * The policy is pluggable, and the controller only talks to the {@link VideoCall} it is given,
+ * so it can be driven with a fake one.
+ */
+public class VideoQualityController {
+
+    /**
+     * The conditions of a video call which decide the quality of its video.
+     */
+    public static class Conditions {
+        /**
+         * The quality last asked for, or {@link VideoProfile#QUALITY_DEFAULT} if the call is
+         * still at the quality it started with.
+         */
+        public int requestedQuality = VideoProfile.QUALITY_DEFAULT;
+        /** The quality last reported for the call, a {@code VideoProfile.QUALITY_*}. */
+        public int reportedQuality = VideoProfile.QUALITY_UNKNOWN;
+        /** The dimensions of the peer's video, or 0 if unknown. */
+        public int peerWidth;
+        public int peerHeight;
+        /** The data rate of the call in bytes per second, or -1 if unknown. */
+        public long dataRate = -1;
+        /** The battery level, in percent. */
+        public int batteryLevel = 100;
+        public boolean isCharging = true;
+        /** The battery temperature in tenths of a degree Celsius, or 0 if unknown. */
+        public int batteryTemperature;
+        /**
+         * Whether to probe for a higher quality, ignoring the feedback of the call, i.e. its data
+         * rate, reported quality and the size of the peer's video.
+         */
+        public boolean isProbing;
+
+        @Override
+        public String toString() {
+            return "Conditions{requestedQuality=" + requestedQuality
+                    + " reportedQuality=" + reportedQuality + " peer=" + peerWidth + "x"
+                    + peerHeight + " dataRate=" + dataRate + " battery=" + batteryLevel
+                    + (isCharging ? "% charging" : "%") + " temperature=" + batteryTemperature
+                    + (isProbing ? " probing" : "") + "}";
+        }
+    }
+
+    /**
+     * Decides the quality of the video.
+     */
+    public interface Policy {
+        /**
+         * @return {@link VideoProfile#QUALITY_HIGH}, {@link VideoProfile#QUALITY_MEDIUM} or
+         *         {@link VideoProfile#QUALITY_LOW}.
+         */
+        public int getQuality(Conditions conditions);
+    }
+
+    /**
+     * Steps the quality down for each condition that can't sustain a higher one, taking the
+     * lowest. The battery temperature stands in for the thermal state of the device.
+     *
+     * The data rate, the reported quality and the size of the peer's video drop along with the
+     * quality that was asked for. They hold the quality down as long as they call for that
+     * quality or a lower one, and don't count while probing, which is how the quality gets
+     * raised again once they lowered it.
+     */
+    public static class DefaultPolicy implements Policy {
+        private static final int TEMPERATURE_MEDIUM = 420;
+        private static final int TEMPERATURE_LOW = 450;
+        private static final int BATTERY_MEDIUM = 30;
+        private static final int BATTERY_LOW = 15;
+        private static final long DATA_RATE_MEDIUM = 64 * 1024;
+        private static final long DATA_RATE_LOW = 32 * 1024;
+        /** A peer sending at most this many pixels is on a constrained link. */
+        private static final int PEER_PIXELS_MEDIUM = 320 * 240;
+
+        @Override
+        public int getQuality(Conditions conditions) {
+            int quality = VideoProfile.QUALITY_HIGH;
+
+            if (conditions.batteryTemperature >= TEMPERATURE_LOW) {
+                quality = lowest(quality, VideoProfile.QUALITY_LOW);
+            } else if (conditions.batteryTemperature >= TEMPERATURE_MEDIUM) {
+                quality = lowest(quality, VideoProfile.QUALITY_MEDIUM);
+            }
+
+            if (!conditions.isCharging) {
+                if (conditions.batteryLevel <= BATTERY_LOW) {
+                    quality = lowest(quality, VideoProfile.QUALITY_LOW);
+                } else if (conditions.batteryLevel <= BATTERY_MEDIUM) {
+                    quality = lowest(quality, VideoProfile.QUALITY_MEDIUM);
+                }
+            }
+
+            int feedbackQuality = VideoProfile.QUALITY_HIGH;
+            if (conditions.dataRate >= 0) {
+                if (conditions.dataRate < DATA_RATE_LOW) {
+                    feedbackQuality = lowest(feedbackQuality, VideoProfile.QUALITY_LOW);
+                } else if (conditions.dataRate < DATA_RATE_MEDIUM) {
+                    feedbackQuality = lowest(feedbackQuality, VideoProfile.QUALITY_MEDIUM);
+                }
+            }
+
+            final int peerPixels = conditions.peerWidth * conditions.peerHeight;
+            if (peerPixels > 0 && peerPixels <= PEER_PIXELS_MEDIUM) {
+                feedbackQuality = lowest(feedbackQuality, VideoProfile.QUALITY_MEDIUM);
+            }
+
+            if (conditions.reportedQuality == VideoProfile.QUALITY_LOW
+                    || conditions.reportedQuality == VideoProfile.QUALITY_MEDIUM) {
+                feedbackQuality = lowest(feedbackQuality, conditions.reportedQuality);
+            }
+
+            final int requestedQuality = toKnownQuality(conditions.requestedQuality);
+            if (!conditions.isProbing
+                    && lowest(feedbackQuality, requestedQuality) == feedbackQuality) {
+                quality = lowest(quality, feedbackQuality);
+            }
+            return quality;
+        }
+    }
+
+    /**
+     * Whether to request changes of quality.
+     * 0 - Disabled.
+     * 1 - Enabled.
+     */
+    private static final String PROPERTY_ADAPT_QUALITY = "persist.radio.videoquality.adapt";
+
+    /** Minimum time between two quality requests. */
+    private static final long MIN_REQUEST_INTERVAL_MS = 15000;
+    /** Minimum time before a quality is raised again. */
+    private static final long MIN_RAISE_INTERVAL_MS = 60000;
+    /** How long the feedback of the call holds the quality down before a higher one is probed. */
+    private static final long PROBE_INTERVAL_MS = 60000;
+    /** Minimum time between two data usage samples a rate is computed from. */
+    private static final long MIN_DATA_USAGE_INTERVAL_MS = 1000;
+
+    private static final int MSG_PROBE = 1;
+
+    private final Policy mPolicy;
+    private final boolean mIsEnabled;
+    private final Conditions mConditions = new Conditions();
+
+    private Context mContext;
+    private VideoCall mVideoCall;
+    private int mVideoState;
+
+    private long mLastRequestTimeMs;
+
+    private long mLastDataUsage = -1;
+    private long mLastDataUsageTimeMs;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_PROBE) {
+                mConditions.isProbing = true;
+                update();
+                mConditions.isProbing = false;
+            }
+        }
+    };
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBatteryChanged(intent);
+        }
+    };
+
+    public VideoQualityController(Policy policy) {
+        mPolicy = Preconditions.checkNotNull(policy);
+        mIsEnabled = SystemProperties.getBoolean(PROPERTY_ADAPT_QUALITY, false);
+    }
+
+    /**
+     * Starts adapting the quality of a video call, or updates the video call and video state
+     * if already started.
+     *
+     * @param context The context to watch the battery with, or null not to watch it.
+     */
+    public void start(Context context, VideoCall videoCall, int videoState) {
+        if (mVideoCall != videoCall) {
+            reset();
+        }
+        mVideoCall = videoCall;
+        mVideoState = videoState;
+
+        if (mContext == null && context != null) {
+            mContext = context;
+            // The battery broadcast is sticky, so the current state is delivered right away.
+            final Intent battery = mContext.registerReceiver(mBatteryReceiver,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (battery != null) {
+                onBatteryChanged(battery);
+            }
+        }
+    }
+
+    /**
+     * Stops adapting the quality of the video call.
+     */
+    public void stop() {
+        if (mContext != null) {
+            mContext.unregisterReceiver(mBatteryReceiver);
+            mContext = null;
+        }
+        mVideoCall = null;
+        reset();
+    }
+
+    private void reset() {
+        mHandler.removeMessages(MSG_PROBE);
+        mConditions.requestedQuality = VideoProfile.QUALITY_DEFAULT;
+        mLastRequestTimeMs = 0;
+        mLastDataUsage = -1;
+        mConditions.reportedQuality = VideoProfile.QUALITY_UNKNOWN;
+        mConditions.peerWidth = 0;
+        mConditions.peerHeight = 0;
+        mConditions.dataRate = -1;
+    }
+
+    public void onVideoQualityChanged(int videoQuality) {
+        mConditions.reportedQuality = videoQuality;
+        update();
+    }
+
+    public void onPeerDimensionsChanged(int width, int height) {
+        mConditions.peerWidth = width;
+        mConditions.peerHeight = height;
+        update();
+    }
+
+    /**
+     * @param dataUsage The data used by the call so far, in bytes.
+     */
+    public void onDataUsageChanged(long dataUsage) {
+        final long now = SystemClock.elapsedRealtime();
+        if (mLastDataUsage < 0 || dataUsage < mLastDataUsage) {
+            mLastDataUsage = dataUsage;
+            mLastDataUsageTimeMs = now;
+            return;
+        }
+        final long elapsedMs = now - mLastDataUsageTimeMs;
+        if (elapsedMs < MIN_DATA_USAGE_INTERVAL_MS) {
+            return;
+        }
+        mConditions.dataRate = (dataUsage - mLastDataUsage) * 1000 / elapsedMs;
+        mLastDataUsage = dataUsage;
+        mLastDataUsageTimeMs = now;
+        update();
+    }
+
+    /**
+     * Handles a {@link Intent#ACTION_BATTERY_CHANGED} broadcast.
+     */
+    public void onBatteryChanged(Intent intent) {
+        final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            mConditions.batteryLevel = level * 100 / scale;
+        }
+        mConditions.isCharging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        mConditions.batteryTemperature =
+                intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        update();
+    }
+
+    private void update() {
+        // A paused call sends no video, and a request must not carry the pause along.
+        if (!mIsEnabled || mVideoCall == null
+                || !VideoProfile.VideoState.isTransmissionEnabled(mVideoState)
+                || VideoProfile.VideoState.isPaused(mVideoState)) {
+            mHandler.removeMessages(MSG_PROBE);
+            return;
+        }
+
+        final int requestedQuality = mConditions.requestedQuality;
+        final int quality = mPolicy.getQuality(mConditions);
+        // A call still at the quality it started with is at QUALITY_HIGH.
+        if (toKnownQuality(quality) != toKnownQuality(requestedQuality)) {
+            final long now = SystemClock.elapsedRealtime();
+            final long minIntervalMs = isRaise(quality, requestedQuality)
+                    ? MIN_RAISE_INTERVAL_MS : MIN_REQUEST_INTERVAL_MS;
+            if (mLastRequestTimeMs == 0 || now - mLastRequestTimeMs >= minIntervalMs) {
+                Log.i(this, "Requesting video quality " + quality + " for " + mConditions);
+                mConditions.requestedQuality = quality;
+                mLastRequestTimeMs = now;
+                mVideoCall.sendSessionModifyRequest(new VideoProfile(mVideoState, quality));
+            }
+        }
+        updateProbe();
+    }
+
+    /**
+     * Schedules a probe for a higher quality if the feedback of the call alone holds the quality
+     * down, or cancels it otherwise.
+     */
+    private void updateProbe() {
+        final boolean wasProbing = mConditions.isProbing;
+        mConditions.isProbing = true;
+        final int probedQuality = mPolicy.getQuality(mConditions);
+        mConditions.isProbing = wasProbing;
+
+        if (!isRaise(probedQuality, mConditions.requestedQuality)) {
+            mHandler.removeMessages(MSG_PROBE);
+        } else if (!mHandler.hasMessages(MSG_PROBE)) {
+            mHandler.sendEmptyMessageDelayed(MSG_PROBE, PROBE_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * @return Whether a session modification request only asks for a change of quality, which
+     *         is how the requests sent by this class are told apart.
+     */
+    public static boolean isQualityRequest(VideoProfile requestedProfile) {
+        return requestedProfile != null
+                && requestedProfile.getQuality() != VideoProfile.QUALITY_DEFAULT;
+    }
+
+    /**
+     * @return Whether going from one quality to another raises it.
+     */
+    private static boolean isRaise(int quality, int fromQuality) {
+        // QUALITY_HIGH, QUALITY_MEDIUM and QUALITY_LOW are in decreasing order of quality.
+        return toKnownQuality(quality) < toKnownQuality(fromQuality);
+    }
+
+    /**
+     * @return The quality, with {@link VideoProfile#QUALITY_DEFAULT} taken as
+     *         {@link VideoProfile#QUALITY_HIGH}.
+     */
+    private static int toKnownQuality(int quality) {
+        return quality == VideoProfile.QUALITY_DEFAULT ? VideoProfile.QUALITY_HIGH : quality;
+    }
+
+    /**
+     * @return The lower of two qualities.
+     */
+    private static int lowest(int quality1, int quality2) {
+        // QUALITY_HIGH, QUALITY_MEDIUM and QUALITY_LOW are in increasing order.
+        return Math.max(quality1, quality2);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Point;
+import android.graphics.SurfaceTexture;
+import android.os.SystemClock;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Keeps the {@link SurfaceTexture}s behind the video call surfaces of {@link VideoCallFragment}
+ * ready ahead of time, so the display and preview surfaces can be handed to the video call as
+ * soon as the video views are inflated, instead of after their first layout.
+ *
+ * Textures are created and sized when an incoming video call rings, and returned here when a
+ * video call is done with them so the next call reuses them. They are released once there are
+ * no calls left. Reuse across orientation changes is handled by {@link VideoCallFragment}
+ * itself, which keeps its surfaces while the activity is recreated.
+ *
+ * Also measures the time from answering a video call to the first frame of the peer's video.
+ *
+ * Used on the main thread only.
+ */
+public class VideoSurfacePool {
+
+    private static VideoSurfacePool sInstance;
+
+    private final LatencyHistogram mAnswerToFirstFrame =
+            new LatencyHistogram("answer to first remote frame");
+
+    private SurfaceTexture mDisplayTexture;
+    private SurfaceTexture mPreviewTexture;
+    private int mHits;
+    private int mMisses;
+    /** When a video call was answered, until its first remote frame; 0 otherwise. */
+    private long mAnswerTimeMs;
+
+    public static synchronized VideoSurfacePool getInstance() {
+        if (sInstance == null) {
+            sInstance = new VideoSurfacePool();
+        }
+        return sInstance;
+    }
+
+    private VideoSurfacePool() {
+    }
+
+    /**
+     * Creates the textures which are not pooled yet, the display one with the size of the
+     * screen, which is the size the display surface starts with.
+     */
+    public void prewarm(Context context) {
+        if (mDisplayTexture == null) {
+            final WindowManager windowManager =
+                    (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+            final Point size = new Point();
+            windowManager.getDefaultDisplay().getSize(size);
+            mDisplayTexture = createTexture();
+            mDisplayTexture.setDefaultBufferSize(size.x, size.y);
+        }
+        if (mPreviewTexture == null) {
+            // Sized by the presenter once the camera capabilities are known.
+            mPreviewTexture = createTexture();
+        }
+        Log.d(this, "prewarm: display=", mDisplayTexture, " preview=", mPreviewTexture);
+    }
+
+    /**
+     * Takes the pooled texture for a surface.
+     *
+     * @param surfaceId {@link VideoCallFragment#SURFACE_DISPLAY} or
+     *         {@link VideoCallFragment#SURFACE_PREVIEW}.
+     * @return The texture, detached from any GL context, or null if none is pooled.
+     */
+    public SurfaceTexture obtain(int surfaceId) {
+        final SurfaceTexture texture;
+        if (surfaceId == VideoCallFragment.SURFACE_DISPLAY) {
+            texture = mDisplayTexture;
+            mDisplayTexture = null;
+        } else {
+            texture = mPreviewTexture;
+            mPreviewTexture = null;
+        }
+        if (texture != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return texture;
+    }
+
+    /**
+     * Returns a texture which is no longer used by a surface. It must not be attached to a GL
+     * context, nor have a {@link Surface} left on it. Released if a texture is already pooled for
+     * that surface.
+     */
+    public void recycle(int surfaceId, SurfaceTexture texture) {
+        final boolean isDisplay = surfaceId == VideoCallFragment.SURFACE_DISPLAY;
+        if ((isDisplay ? mDisplayTexture : mPreviewTexture) != null || !clear(texture)) {
+            texture.release();
+            return;
+        }
+        if (isDisplay) {
+            mDisplayTexture = texture;
+        } else {
+            mPreviewTexture = texture;
+        }
+    }
+
+    /**
+     * Releases the pooled textures. Called once there are no calls left.
+     */
+    public void clear() {
+        if (mDisplayTexture != null) {
+            mDisplayTexture.release();
+            mDisplayTexture = null;
+        }
+        if (mPreviewTexture != null) {
+            mPreviewTexture.release();
+            mPreviewTexture = null;
+        }
+        mAnswerTimeMs = 0;
+    }
+
+    /**
+     * Called when a video call is answered, to measure the time to its first remote frame.
+     */
+    public void onVideoCallAnswered() {
+        mAnswerTimeMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Called when the display surface shows a frame.
+     */
+    public void onRemoteFrame() {
+        if (mAnswerTimeMs != 0) {
+            final long latencyMs = SystemClock.elapsedRealtime() - mAnswerTimeMs;
+            mAnswerTimeMs = 0;
+            Log.i(this, "First remote frame " + latencyMs + "ms after answering");
+            mAnswerToFirstFrame.record(latencyMs);
+        }
+    }
+
+    private static SurfaceTexture createTexture() {
+        final SurfaceTexture texture = new SurfaceTexture(0);
+        // TextureView attaches the texture to its own GL context.
+        texture.detachFromGLContext();
+        return texture;
+    }
+
+    /**
+     * Posts a black frame, so the last frame of the previous call isn't shown by the next one.
+     *
+     * @return Whether the texture could be cleared.
+     */
+    private boolean clear(SurfaceTexture texture) {
+        final Surface surface = new Surface(texture);
+        try {
+            final Canvas canvas = surface.lockCanvas(null);
+            canvas.drawColor(Color.BLACK);
+            surface.unlockCanvasAndPost(canvas);
+            return true;
+        } catch (Surface.OutOfResourcesException e) {
+            Log.w(this, "Could not clear texture " + texture + ": " + e);
+            return false;
+        } catch (IllegalArgumentException e) {
+            Log.w(this, "Could not clear texture " + texture + ": " + e);
+            return false;
+        } finally {
+            surface.release();
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("VideoSurfacePool:");
+        pw.println("  pooled: display=" + (mDisplayTexture != null)
+                + " preview=" + (mPreviewTexture != null) + ", hits: " + mHits
+                + ", misses: " + mMisses);
+        mAnswerToFirstFrame.dump(pw, "  ");
+    }
+}
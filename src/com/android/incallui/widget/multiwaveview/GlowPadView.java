@@ -29,6 +29,8 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Vibrator;
@@ -42,6 +44,7 @@ import android.view.View;
 import android.view.accessibility.AccessibilityManager;
 
 import com.android.incallui.R;
+import com.android.incallui.UiPerformanceMonitor;
 
 import java.util.ArrayList;
 
@@ -124,7 +127,57 @@ public class GlowPadView extends View {
     private boolean mDragging;
     private int mNewTargetResources;
 
-    private class AnimationBundle extends ArrayList<Tweener> {
+    private static final Tweener.FloatProperty<TargetDrawable> TARGET_ALPHA =
+            new Tweener.FloatProperty<TargetDrawable>("alpha") {
+        public float get(TargetDrawable target) { return target.getAlpha(); }
+        public void set(TargetDrawable target, float value) { target.setAlpha(value); }
+    };
+
+    private static final Tweener.FloatProperty<TargetDrawable> TARGET_SCALE_X =
+            new Tweener.FloatProperty<TargetDrawable>("scaleX") {
+        public float get(TargetDrawable target) { return target.getScaleX(); }
+        public void set(TargetDrawable target, float value) { target.setScaleX(value); }
+    };
+
+    private static final Tweener.FloatProperty<TargetDrawable> TARGET_SCALE_Y =
+            new Tweener.FloatProperty<TargetDrawable>("scaleY") {
+        public float get(TargetDrawable target) { return target.getScaleY(); }
+        public void set(TargetDrawable target, float value) { target.setScaleY(value); }
+    };
+
+    private static final Tweener.FloatProperty<PointCloud.GlowManager> GLOW_ALPHA =
+            new Tweener.FloatProperty<PointCloud.GlowManager>("alpha") {
+        public float get(PointCloud.GlowManager glow) { return glow.getAlpha(); }
+        public void set(PointCloud.GlowManager glow, float value) { glow.setAlpha(value); }
+    };
+
+    private static final Tweener.FloatProperty<PointCloud.GlowManager> GLOW_X =
+            new Tweener.FloatProperty<PointCloud.GlowManager>("x") {
+        public float get(PointCloud.GlowManager glow) { return glow.getX(); }
+        public void set(PointCloud.GlowManager glow, float value) { glow.setX(value); }
+    };
+
+    private static final Tweener.FloatProperty<PointCloud.GlowManager> GLOW_Y =
+            new Tweener.FloatProperty<PointCloud.GlowManager>("y") {
+        public float get(PointCloud.GlowManager glow) { return glow.getY(); }
+        public void set(PointCloud.GlowManager glow, float value) { glow.setY(value); }
+    };
+
+    private static final Tweener.FloatProperty<PointCloud.WaveManager> WAVE_RADIUS =
+            new Tweener.FloatProperty<PointCloud.WaveManager>("radius") {
+        public float get(PointCloud.WaveManager wave) { return wave.getRadius(); }
+        public void set(PointCloud.WaveManager wave, float value) { wave.setRadius(value); }
+    };
+
+    private static final Tweener.FloatProperty<Drawable> DRAWABLE_ALPHA =
+            new Tweener.FloatProperty<Drawable>("alpha") {
+        public float get(Drawable drawable) { return drawable.getAlpha(); }
+        public void set(Drawable drawable, float value) { drawable.setAlpha(Math.round(value)); }
+    };
+
+    private final Tweener mTweener = new Tweener();
+
+    private class AnimationBundle extends ArrayList<Tweener.Tween> {
         private static final long serialVersionUID = 0xA84D78726F127468L;
         private boolean mSuspended;
 
@@ -132,16 +185,14 @@ public class GlowPadView extends View {
             if (mSuspended) return; // ignore attempts to start animations
             final int count = size();
             for (int i = 0; i < count; i++) {
-                Tweener anim = get(i);
-                anim.animator.start();
+                get(i).start();
             }
         }
 
         public void cancel() {
             final int count = size();
             for (int i = 0; i < count; i++) {
-                Tweener anim = get(i);
-                anim.animator.cancel();
+                get(i).cancel();
             }
             clear();
         }
@@ -149,8 +200,7 @@ public class GlowPadView extends View {
         public void stop() {
             final int count = size();
             for (int i = 0; i < count; i++) {
-                Tweener anim = get(i);
-                anim.animator.end();
+                get(i).end();
             }
             clear();
         }
@@ -177,7 +227,7 @@ public class GlowPadView extends View {
 
     private AnimatorUpdateListener mUpdateListener = new AnimatorUpdateListener() {
         public void onAnimationUpdate(ValueAnimator animation) {
-            invalidate();
+            invalidateChanged();
         }
     };
 
@@ -200,11 +250,18 @@ public class GlowPadView extends View {
     private int mVerticalInset;
     private int mGravity = Gravity.TOP;
     private boolean mInitialLayout = true;
-    private Tweener mBackgroundAnimator;
+    private Tweener.Tween mBackgroundAnimator;
     private PointCloud mPointCloud;
     private float mInnerRadius;
     private int mPointerId;
 
+    // Partial invalidation: only the areas that changed are invalidated.
+    private final RectF mDirtyBounds = new RectF();
+    private final Rect mDirtyRect = new Rect();
+    private final RectF mGlowBounds = new RectF();
+    private final RectF mWaveBounds = new RectF();
+    private final RectF mTmpBounds = new RectF();
+
     public GlowPadView(Context context) {
         this(context, null);
     }
@@ -420,26 +477,23 @@ public class GlowPadView extends View {
     private void showGlow(int duration, int delay, float finalAlpha,
             AnimatorListener finishListener) {
         mGlowAnimations.cancel();
-        mGlowAnimations.add(Tweener.to(mPointCloud.glowManager, duration,
-                "ease", Ease.Cubic.easeIn,
-                "delay", delay,
-                "alpha", finalAlpha,
-                "onUpdate", mUpdateListener,
-                "onComplete", finishListener));
+        mGlowAnimations.add(mTweener.to(mPointCloud.glowManager, GLOW_ALPHA, duration, delay,
+                Ease.Cubic.easeIn, finalAlpha, mUpdateListener, finishListener));
         mGlowAnimations.start();
     }
 
     private void hideGlow(int duration, int delay, float finalAlpha,
             AnimatorListener finishListener) {
         mGlowAnimations.cancel();
-        mGlowAnimations.add(Tweener.to(mPointCloud.glowManager, duration,
-                "ease", Ease.Quart.easeOut,
-                "delay", delay,
-                "alpha", finalAlpha,
-                "x", 0.0f,
-                "y", 0.0f,
-                "onUpdate", mUpdateListener,
-                "onComplete", finishListener));
+        final TimeInterpolator interpolator = Ease.Quart.easeOut;
+        final PointCloud.GlowManager glow = mPointCloud.glowManager;
+        mGlowAnimations.add(mTweener.to(glow, GLOW_X, duration, delay, interpolator, 0.0f,
+                null, null));
+        mGlowAnimations.add(mTweener.to(glow, GLOW_Y, duration, delay, interpolator, 0.0f,
+                null, null));
+        // Started last, so it runs last on each frame, after the other properties changed.
+        mGlowAnimations.add(mTweener.to(glow, GLOW_ALPHA, duration, delay, interpolator,
+                finalAlpha, mUpdateListener, finishListener));
         mGlowAnimations.start();
     }
 
@@ -523,26 +577,14 @@ public class GlowPadView extends View {
         for (int i = 0; i < length; i++) {
             TargetDrawable target = mTargetDrawables.get(i);
             target.setState(TargetDrawable.STATE_INACTIVE);
-            mTargetAnimations.add(Tweener.to(target, duration,
-                    "ease", interpolator,
-                    "alpha", 0.0f,
-                    "scaleX", targetScale,
-                    "scaleY", targetScale,
-                    "delay", delay,
-                    "onUpdate", mUpdateListener));
+            addTargetAnimations(target, duration, delay, interpolator, 0.0f, targetScale, null);
         }
 
         float ringScaleTarget = expanded ?
                 RING_SCALE_EXPANDED : RING_SCALE_COLLAPSED;
         ringScaleTarget *= mRingScaleFactor;
-        mTargetAnimations.add(Tweener.to(mOuterRing, duration,
-                "ease", interpolator,
-                "alpha", 0.0f,
-                "scaleX", ringScaleTarget,
-                "scaleY", ringScaleTarget,
-                "delay", delay,
-                "onUpdate", mUpdateListener,
-                "onComplete", mTargetUpdateListener));
+        addTargetAnimations(mOuterRing, duration, delay, interpolator, 0.0f, ringScaleTarget,
+                mTargetUpdateListener);
 
         mTargetAnimations.start();
     }
@@ -556,27 +598,30 @@ public class GlowPadView extends View {
         for (int i = 0; i < length; i++) {
             TargetDrawable target = mTargetDrawables.get(i);
             target.setState(TargetDrawable.STATE_INACTIVE);
-            mTargetAnimations.add(Tweener.to(target, duration,
-                    "ease", Ease.Cubic.easeOut,
-                    "alpha", 1.0f,
-                    "scaleX", 1.0f,
-                    "scaleY", 1.0f,
-                    "delay", delay,
-                    "onUpdate", mUpdateListener));
+            addTargetAnimations(target, duration, delay, Ease.Cubic.easeOut, 1.0f, 1.0f, null);
         }
         float ringScale = mRingScaleFactor * RING_SCALE_EXPANDED;
-        mTargetAnimations.add(Tweener.to(mOuterRing, duration,
-                "ease", Ease.Cubic.easeOut,
-                "alpha", 1.0f,
-                "scaleX", ringScale,
-                "scaleY", ringScale,
-                "delay", delay,
-                "onUpdate", mUpdateListener,
-                "onComplete", mTargetUpdateListener));
+        addTargetAnimations(mOuterRing, duration, delay, Ease.Cubic.easeOut, 1.0f, ringScale,
+                mTargetUpdateListener);
 
         mTargetAnimations.start();
     }
 
+    /**
+     * Adds the tweens of the alpha and scale of a target to {@link #mTargetAnimations}. The
+     * alpha tween is added last, so it runs last on each frame, and only it invalidates the
+     * view and notifies the listener.
+     */
+    private void addTargetAnimations(TargetDrawable target, long duration, long delay,
+            TimeInterpolator interpolator, float alpha, float scale, AnimatorListener listener) {
+        mTargetAnimations.add(mTweener.to(target, TARGET_SCALE_X, duration, delay, interpolator,
+                scale, null, null));
+        mTargetAnimations.add(mTweener.to(target, TARGET_SCALE_Y, duration, delay, interpolator,
+                scale, null, null));
+        mTargetAnimations.add(mTweener.to(target, TARGET_ALPHA, duration, delay, interpolator,
+                alpha, mUpdateListener, listener));
+    }
+
     private void vibrate() {
         if (mVibrator != null) {
             mVibrator.vibrate(mVibrationDuration);
@@ -598,6 +643,10 @@ public class GlowPadView extends View {
     }
 
     private void internalSetTargetResources(int resourceId) {
+        final int oldCount = mTargetDrawables.size();
+        for (int i = 0; i < oldCount; i++) {
+            mTweener.remove(mTargetDrawables.get(i));
+        }
         final ArrayList<TargetDrawable> targets = loadDrawableArray(resourceId);
         mTargetDrawables = targets;
         mTargetResourceId = resourceId;
@@ -618,6 +667,8 @@ public class GlowPadView extends View {
             updateTargetPositions(mWaveCenterX, mWaveCenterY);
             updatePointCloudPosition(mWaveCenterX, mWaveCenterY);
         }
+        // The old targets are gone, so their areas won't show up as changed.
+        invalidate();
     }
     /**
      * Loads an array of drawables from the given resourceId.
@@ -645,6 +696,7 @@ public class GlowPadView extends View {
         mHandleDrawable = new TargetDrawable(getResources(), resourceId, 2);
         mHandleDrawable.setState(TargetDrawable.STATE_INACTIVE);
         requestLayout();
+        invalidate();
     }
 
     /**
@@ -712,8 +764,8 @@ public class GlowPadView extends View {
             final AnimationBundle waveAnimations = mWaveAnimations;
 
             // Don't do a wave if there's already one in progress
-            if (waveAnimations.size() > 0 && waveAnimations.get(0).animator.isRunning()) {
-                long t = waveAnimations.get(0).animator.getCurrentPlayTime();
+            if (waveAnimations.size() > 0 && waveAnimations.get(0).isRunning()) {
+                long t = waveAnimations.get(0).getCurrentPlayTime();
                 if (t < WAVE_ANIMATION_DURATION/2) {
                     doWaveAnimation = false;
                 }
@@ -734,21 +786,19 @@ public class GlowPadView extends View {
         mWaveAnimations.cancel();
         mPointCloud.waveManager.setAlpha(1.0f);
         mPointCloud.waveManager.setRadius(mHandleDrawable.getWidth()/2.0f);
-        mWaveAnimations.add(Tweener.to(mPointCloud.waveManager, WAVE_ANIMATION_DURATION,
-                "ease", Ease.Quad.easeOut,
-                "delay", 0,
-                "radius", 2.0f * mOuterRadius,
-                "onUpdate", mUpdateListener,
-                "onComplete",
-                new AnimatorListenerAdapter() {
-                    public void onAnimationEnd(Animator animator) {
-                        mPointCloud.waveManager.setRadius(0.0f);
-                        mPointCloud.waveManager.setAlpha(0.0f);
-                    }
-                }));
+        mWaveAnimations.add(mTweener.to(mPointCloud.waveManager, WAVE_RADIUS,
+                WAVE_ANIMATION_DURATION, 0, Ease.Quad.easeOut, 2.0f * mOuterRadius,
+                mUpdateListener, mWaveEndListener));
         mWaveAnimations.start();
     }
 
+    private final AnimatorListener mWaveEndListener = new AnimatorListenerAdapter() {
+        public void onAnimationEnd(Animator animator) {
+            mPointCloud.waveManager.setRadius(0.0f);
+            mPointCloud.waveManager.setAlpha(0.0f);
+        }
+    };
+
     /**
      * Resets the widget to default state and cancels all animation. If animate is 'true', will
      * animate objects into place. Otherwise, objects will snap back to place.
@@ -762,20 +812,17 @@ public class GlowPadView extends View {
         stopAndHideWaveAnimation();
         hideTargets(animate, false);
         hideGlow(0, 0, 0.0f, null);
-        Tweener.reset();
     }
 
     private void startBackgroundAnimation(int duration, float alpha) {
         final Drawable background = getBackground();
         if (mAlwaysTrackFinger && background != null) {
             if (mBackgroundAnimator != null) {
-                mBackgroundAnimator.animator.cancel();
+                mBackgroundAnimator.cancel();
             }
-            mBackgroundAnimator = Tweener.to(background, duration,
-                    "ease", Ease.Cubic.easeIn,
-                    "alpha", (int)(255.0f * alpha),
-                    "delay", SHOW_ANIMATION_DELAY);
-            mBackgroundAnimator.animator.start();
+            mBackgroundAnimator = mTweener.to(background, DRAWABLE_ALPHA, duration,
+                    SHOW_ANIMATION_DELAY, Ease.Cubic.easeIn, (int)(255.0f * alpha), null, null);
+            mBackgroundAnimator.start();
         }
     }
 
@@ -813,7 +860,7 @@ public class GlowPadView extends View {
                 handled = true;
                 break;
         }
-        invalidate();
+        invalidateChanged();
         return handled ? true : super.onTouchEvent(event);
     }
 
@@ -1145,6 +1192,9 @@ public class GlowPadView extends View {
         mWaveCenterX = newWaveCenterX;
         mWaveCenterY = newWaveCenterY;
 
+        // Everything may have moved.
+        invalidate();
+
         if (DEBUG) dump();
     }
 
@@ -1169,7 +1219,17 @@ public class GlowPadView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        final long startNanos = UiPerformanceMonitor.now();
         mPointCloud.draw(canvas);
+        if (areTargetsVisible()) {
+            drawTargets(canvas);
+        }
+        mHandleDrawable.draw(canvas);
+        UiPerformanceMonitor.getInstance().recordDraw(UiPerformanceMonitor.OP_GLOW_PAD_DRAW,
+                startNanos);
+    }
+
+    private void drawTargets(Canvas canvas) {
         mOuterRing.draw(canvas);
         final int ntargets = mTargetDrawables.size();
         for (int i = 0; i < ntargets; i++) {
@@ -1178,7 +1238,56 @@ public class GlowPadView extends View {
                 target.draw(canvas);
             }
         }
-        mHandleDrawable.draw(canvas);
+    }
+
+    private boolean areTargetsVisible() {
+        if (mOuterRing.getAlpha() > 0.0f) {
+            return true;
+        }
+        final int ntargets = mTargetDrawables.size();
+        for (int i = 0; i < ntargets; i++) {
+            TargetDrawable target = mTargetDrawables.get(i);
+            if (target != null && target.getAlpha() > 0.0f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Invalidates the areas which changed since the last call: where the glow and the wave were
+     * and are, and the old and new bounds of the drawables which changed.
+     */
+    private void invalidateChanged() {
+        mDirtyBounds.setEmpty();
+
+        mPointCloud.getGlowBounds(mTmpBounds);
+        if (!mTmpBounds.equals(mGlowBounds)) {
+            mDirtyBounds.union(mGlowBounds);
+            mDirtyBounds.union(mTmpBounds);
+            mGlowBounds.set(mTmpBounds);
+        }
+        mPointCloud.getWaveBounds(mTmpBounds);
+        if (!mTmpBounds.equals(mWaveBounds)) {
+            mDirtyBounds.union(mWaveBounds);
+            mDirtyBounds.union(mTmpBounds);
+            mWaveBounds.set(mTmpBounds);
+        }
+
+        mOuterRing.addDirtyBounds(mDirtyBounds);
+        mHandleDrawable.addDirtyBounds(mDirtyBounds);
+        final int ntargets = mTargetDrawables.size();
+        for (int i = 0; i < ntargets; i++) {
+            TargetDrawable target = mTargetDrawables.get(i);
+            if (target != null) {
+                target.addDirtyBounds(mDirtyBounds);
+            }
+        }
+
+        if (!mDirtyBounds.isEmpty()) {
+            mDirtyBounds.roundOut(mDirtyRect);
+            invalidate(mDirtyRect);
+        }
     }
 
     public void setOnTriggerListener(OnTriggerListener listener) {
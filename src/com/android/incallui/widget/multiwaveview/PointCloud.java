@@ -16,32 +16,54 @@
 
 package com.android.incallui.widget.multiwaveview;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.FloatMath;
 import android.util.Log;
 
-import java.util.ArrayList;
-
 public class PointCloud {
     private static final float MIN_POINT_SIZE = 2.0f;
     private static final float MAX_POINT_SIZE = 4.0f;
     private static final int INNER_POINTS = 8;
     private static final String TAG = "PointCloud";
-    private ArrayList<Point> mPointCloud = new ArrayList<Point>();
+    private static final float PI = (float) Math.PI;
+
+    // The glow and wave falloff curves, cos(PI/4 * t)^10 for t in [0, 1] and cos(PI/4 * t)^20
+    // for t in [0, 4], sampled so that draw() doesn't need any trigonometry or pow() per point.
+    // The wave curve repeats every 4 units of t.
+    private static final int FALLOFF_STEPS = 256;
+    private static final float GLOW_FALLOFF_RANGE = 1.0f;
+    private static final float WAVE_FALLOFF_RANGE = 4.0f;
+    private static final float[] GLOW_FALLOFF = makeFalloffTable(GLOW_FALLOFF_RANGE, 10.0f);
+    private static final float[] WAVE_FALLOFF = makeFalloffTable(WAVE_FALLOFF_RANGE, 20.0f);
+
+    // The points, relative to the center, along with their distance to the center and their
+    // size, stored as parallel arrays.
+    private float[] mPointX = new float[0];
+    private float[] mPointY = new float[0];
+    private float[] mPointRadius = new float[0];
+    private float[] mPointSize = new float[0];
+    private int mPointCount;
+    private float mCloudRadius;
+
     private Drawable mDrawable;
+    private Bitmap mBitmap;
+    private final RectF mBitmapDst = new RectF();
+    private final Rect mClipBounds = new Rect();
     private float mCenterX;
     private float mCenterY;
     private Paint mPaint;
     private float mScale = 1.0f;
-    private static final float PI = (float) Math.PI;
 
     // These allow us to have multiple concurrent animations.
     WaveManager waveManager = new WaveManager();
     GlowManager glowManager = new GlowManager();
-    private float mOuterRadius;
 
     public class WaveManager {
         private float radius = 50;
@@ -103,18 +125,6 @@ public class PointCloud {
         }
     }
 
-    class Point {
-        float x;
-        float y;
-        float radius;
-
-        public Point(float x2, float y2, float r) {
-            x = (float) x2;
-            y = (float) y2;
-            radius = r;
-        }
-    }
-
     public PointCloud(Drawable drawable) {
         mPaint = new Paint();
         mPaint.setFilterBitmap(true);
@@ -126,6 +136,11 @@ public class PointCloud {
         if (mDrawable != null) {
             drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
         }
+        // Bitmaps can be drawn at any position and size directly, without transforming the
+        // canvas for each point.
+        if (mDrawable instanceof BitmapDrawable) {
+            mBitmap = ((BitmapDrawable) mDrawable).getBitmap();
+        }
     }
 
     public void setCenter(float x, float y) {
@@ -138,25 +153,44 @@ public class PointCloud {
             Log.w(TAG, "Must specify an inner radius");
             return;
         }
-        mOuterRadius = outerRadius;
-        mPointCloud.clear();
         final float pointAreaRadius =  (outerRadius - innerRadius);
         final float ds = (2.0f * PI * innerRadius / INNER_POINTS);
         final int bands = (int) Math.round(pointAreaRadius / ds);
         final float dr = pointAreaRadius / bands;
+
+        int count = 0;
         float r = innerRadius;
+        for (int b = 0; b <= bands; b++, r += dr) {
+            count += (int) (2.0f * PI * r / ds);
+        }
+        if (mPointX.length < count) {
+            mPointX = new float[count];
+            mPointY = new float[count];
+            mPointRadius = new float[count];
+            mPointSize = new float[count];
+        }
+
+        int index = 0;
+        r = innerRadius;
         for (int b = 0; b <= bands; b++, r += dr) {
             float circumference = 2.0f * PI * r;
             final int pointsInBand = (int) (circumference / ds);
+            final float pointSize = interp(MAX_POINT_SIZE, MIN_POINT_SIZE, r / outerRadius);
             float eta = PI/2.0f;
             float dEta = 2.0f * PI / pointsInBand;
             for (int i = 0; i < pointsInBand; i++) {
                 float x = r * FloatMath.cos(eta);
                 float y = r * FloatMath.sin(eta);
                 eta += dEta;
-                mPointCloud.add(new Point(x, y, r));
+                mPointX[index] = x;
+                mPointY[index] = y;
+                mPointRadius[index] = hypot(x, y);
+                mPointSize[index] = pointSize;
+                index++;
             }
         }
+        mPointCount = index;
+        mCloudRadius = outerRadius;
     }
 
     public void setScale(float scale) {
@@ -175,23 +209,29 @@ public class PointCloud {
         return a > b ? a : b;
     }
 
-    public int getAlphaForPoint(Point point) {
+    private int getAlphaForPoint(int index) {
+        final float x = mPointX[index];
+        final float y = mPointY[index];
+
         // Contribution from positional glow
-        float glowDistance = hypot(glowManager.x - point.x, glowManager.y - point.y);
         float glowAlpha = 0.0f;
-
-        if (glowDistance < glowManager.radius) {
-            float cosf = FloatMath.cos(PI * 0.25f * glowDistance / glowManager.radius);
-            glowAlpha = glowManager.alpha * max(0.0f, (float) Math.pow(cosf, 10.0f));
+        final float glowRadius = glowManager.radius;
+        final float gx = glowManager.x - x;
+        final float gy = glowManager.y - y;
+        if (gx * gx + gy * gy < glowRadius * glowRadius) {
+            float glowDistance = FloatMath.sqrt(gx * gx + gy * gy);
+            glowAlpha = glowManager.alpha * lookup(GLOW_FALLOFF, GLOW_FALLOFF_RANGE,
+                    glowDistance / glowRadius);
         }
 
         // Compute contribution from Wave
-        float radius = hypot(point.x, point.y);
-        float distanceToWaveRing = (radius - waveManager.radius);
+        float distanceToWaveRing = (mPointRadius[index] - waveManager.radius);
         float waveAlpha = 0.0f;
         if (distanceToWaveRing < waveManager.width * 0.5f && distanceToWaveRing < 0.0f) {
-            float cosf = FloatMath.cos(PI * 0.25f * distanceToWaveRing / waveManager.width);
-            waveAlpha = waveManager.alpha * max(0.0f, (float) Math.pow(cosf, 20.0f));
+            // The curve is symmetric, so use the distance rather than the (negative) offset.
+            float t = -distanceToWaveRing / waveManager.width;
+            waveAlpha = waveManager.alpha
+                    * lookup(WAVE_FALLOFF, WAVE_FALLOFF_RANGE, t % WAVE_FALLOFF_RANGE);
         }
 
         return (int) (max(glowAlpha, waveAlpha) * 255);
@@ -201,36 +241,124 @@ public class PointCloud {
         return min + (max - min) * f;
     }
 
+    /**
+     * Samples max(0, cos(PI/4 * t)^exponent) for t in [0, range].
+     */
+    private static float[] makeFalloffTable(float range, float exponent) {
+        final float[] table = new float[FALLOFF_STEPS + 1];
+        for (int i = 0; i <= FALLOFF_STEPS; i++) {
+            final double t = range * i / FALLOFF_STEPS;
+            table[i] = max(0.0f, (float) Math.pow(Math.cos(Math.PI * 0.25 * t), exponent));
+        }
+        return table;
+    }
+
+    /**
+     * Looks up t in [0, range] in a falloff table, interpolating between the samples.
+     */
+    private static float lookup(float[] table, float range, float t) {
+        final float position = t / range * FALLOFF_STEPS;
+        if (position <= 0.0f) {
+            return table[0];
+        } else if (position >= FALLOFF_STEPS) {
+            return table[FALLOFF_STEPS];
+        }
+        final int i = (int) position;
+        final float f = position - i;
+        return table[i] + (table[i + 1] - table[i]) * f;
+    }
+
+    /**
+     * Returns how far a point may extend from its position when drawn.
+     */
+    private float getPointExtent() {
+        float extent = MAX_POINT_SIZE;
+        if (mDrawable != null) {
+            extent = 0.5f * Math.max(mDrawable.getIntrinsicWidth(),
+                    mDrawable.getIntrinsicHeight());
+        }
+        return extent * mScale;
+    }
+
+    /**
+     * Computes the area of the view lit by the glow, or sets an empty rect if the glow is not
+     * visible.
+     */
+    public void getGlowBounds(RectF outBounds) {
+        if (glowManager.alpha <= 0.0f || glowManager.radius <= 0.0f) {
+            outBounds.setEmpty();
+            return;
+        }
+        final float x = mCenterX + glowManager.x * mScale;
+        final float y = mCenterY + glowManager.y * mScale;
+        final float radius = glowManager.radius * mScale + getPointExtent();
+        outBounds.set(x - radius, y - radius, x + radius, y + radius);
+    }
+
+    /**
+     * Computes the area of the view lit by the wave, or sets an empty rect if the wave is not
+     * visible.
+     */
+    public void getWaveBounds(RectF outBounds) {
+        if (waveManager.alpha <= 0.0f || waveManager.radius <= 0.0f) {
+            outBounds.setEmpty();
+            return;
+        }
+        // Every point inside the ring can be lit by the wave.
+        final float radius = Math.min(waveManager.radius, mCloudRadius) * mScale
+                + getPointExtent();
+        outBounds.set(mCenterX - radius, mCenterY - radius, mCenterX + radius,
+                mCenterY + radius);
+    }
+
     public void draw(Canvas canvas) {
-        ArrayList<Point> points = mPointCloud;
-        canvas.save(Canvas.MATRIX_SAVE_FLAG);
-        canvas.scale(mScale, mScale, mCenterX, mCenterY);
-        for (int i = 0; i < points.size(); i++) {
-            Point point = points.get(i);
-            final float pointSize = interp(MAX_POINT_SIZE, MIN_POINT_SIZE,
-                    point.radius / mOuterRadius);
-            final float px = point.x + mCenterX;
-            final float py = point.y + mCenterY;
-            int alpha = getAlphaForPoint(point);
+        // The cloud is scaled around its center, so apply the scale to the point positions and
+        // sizes rather than to the canvas.
+        final float scale = mScale;
+        final float cx = mDrawable != null ? mDrawable.getIntrinsicWidth() * 0.5f : 0.0f;
+        final float cy = mDrawable != null ? mDrawable.getIntrinsicHeight() * 0.5f : 0.0f;
+
+        // Skip the points outside of the area being redrawn.
+        final float extent = getPointExtent();
+        canvas.getClipBounds(mClipBounds);
+        final float clipLeft = mClipBounds.left - extent;
+        final float clipTop = mClipBounds.top - extent;
+        final float clipRight = mClipBounds.right + extent;
+        final float clipBottom = mClipBounds.bottom + extent;
+
+        for (int i = 0; i < mPointCount; i++) {
+            final float px = mPointX[i] * scale + mCenterX;
+            final float py = mPointY[i] * scale + mCenterY;
+            if (px < clipLeft || px > clipRight || py < clipTop || py > clipBottom) {
+                continue;
+            }
+
+            int alpha = getAlphaForPoint(i);
 
             if (alpha == 0) continue;
 
+            final float pointSize = mPointSize[i];
+
             if (mDrawable != null) {
-                canvas.save(Canvas.MATRIX_SAVE_FLAG);
-                final float cx = mDrawable.getIntrinsicWidth() * 0.5f;
-                final float cy = mDrawable.getIntrinsicHeight() * 0.5f;
-                final float s = pointSize / MAX_POINT_SIZE;
-                canvas.scale(s, s, px, py);
-                canvas.translate(px - cx, py - cy);
-                mDrawable.setAlpha(alpha);
-                mDrawable.draw(canvas);
-                canvas.restore();
+                final float s = scale * pointSize / MAX_POINT_SIZE;
+                final float halfWidth = cx * s;
+                final float halfHeight = cy * s;
+                if (mBitmap != null) {
+                    mPaint.setAlpha(alpha);
+                    mBitmapDst.set(px - halfWidth, py - halfHeight, px + halfWidth,
+                            py + halfHeight);
+                    canvas.drawBitmap(mBitmap, null, mBitmapDst, mPaint);
+                } else {
+                    mDrawable.setBounds(Math.round(px - halfWidth), Math.round(py - halfHeight),
+                            Math.round(px + halfWidth), Math.round(py + halfHeight));
+                    mDrawable.setAlpha(alpha);
+                    mDrawable.draw(canvas);
+                }
             } else {
                 mPaint.setAlpha(alpha);
-                canvas.drawCircle(px, py, pointSize, mPaint);
+                canvas.drawCircle(px, py, pointSize * scale, mPaint);
             }
         }
-        canvas.restore();
     }
 
 }
@@ -19,6 +19,7 @@ package com.android.incallui.widget.multiwaveview;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.StateListDrawable;
 import android.util.Log;
@@ -47,6 +48,13 @@ public class TargetDrawable {
     private final int mResourceId;
     private int mNumDrawables = 1;
 
+    // Incremented whenever anything that affects drawing changes, so that the view can tell
+    // which targets need to be redrawn.
+    private int mChangeCount;
+    private int mLastDirtyChangeCount = -1;
+    private final RectF mLastDirtyBounds = new RectF();
+    private final RectF mTmpBounds = new RectF();
+
     /**
      * This is changed from the framework version to pass in the number of drawables in the
      * container. The framework version relies on private api's to get the count from
@@ -68,6 +76,7 @@ public class TargetDrawable {
         Drawable drawable = resId == 0 ? null : res.getDrawable(resId);
         // Mutate the drawable so we can animate shared drawable properties.
         mDrawable = drawable != null ? drawable.mutate() : null;
+        mChangeCount++;
         resizeDrawables();
         setState(STATE_INACTIVE);
     }
@@ -83,7 +92,9 @@ public class TargetDrawable {
     public void setState(int [] state) {
         if (mDrawable instanceof StateListDrawable) {
             StateListDrawable d = (StateListDrawable) mDrawable;
-            d.setState(state);
+            if (d.setState(state)) {
+                mChangeCount++;
+            }
         }
     }
 
@@ -151,23 +162,38 @@ public class TargetDrawable {
     }
 
     public void setX(float x) {
-        mTranslationX = x;
+        if (mTranslationX != x) {
+            mTranslationX = x;
+            mChangeCount++;
+        }
     }
 
     public void setY(float y) {
-        mTranslationY = y;
+        if (mTranslationY != y) {
+            mTranslationY = y;
+            mChangeCount++;
+        }
     }
 
     public void setScaleX(float x) {
-        mScaleX = x;
+        if (mScaleX != x) {
+            mScaleX = x;
+            mChangeCount++;
+        }
     }
 
     public void setScaleY(float y) {
-        mScaleY = y;
+        if (mScaleY != y) {
+            mScaleY = y;
+            mChangeCount++;
+        }
     }
 
     public void setAlpha(float alpha) {
-        mAlpha = alpha;
+        if (mAlpha != alpha) {
+            mAlpha = alpha;
+            mChangeCount++;
+        }
     }
 
     public float getX() {
@@ -191,11 +217,17 @@ public class TargetDrawable {
     }
 
     public void setPositionX(float x) {
-        mPositionX = x;
+        if (mPositionX != x) {
+            mPositionX = x;
+            mChangeCount++;
+        }
     }
 
     public void setPositionY(float y) {
-        mPositionY = y;
+        if (mPositionY != y) {
+            mPositionY = y;
+            mChangeCount++;
+        }
     }
 
     public float getPositionX() {
@@ -214,6 +246,39 @@ public class TargetDrawable {
         return mDrawable != null ? mDrawable.getIntrinsicHeight() : 0;
     }
 
+    /**
+     * Computes the area this target is drawn in, in the coordinates of the view.
+     */
+    public void getBounds(RectF outBounds) {
+        final float halfWidth = 0.5f * getWidth();
+        final float halfHeight = 0.5f * getHeight();
+        outBounds.set(mPositionX + mScaleX * (mTranslationX - halfWidth),
+                mPositionY + mScaleY * (mTranslationY - halfHeight),
+                mPositionX + mScaleX * (mTranslationX + halfWidth),
+                mPositionY + mScaleY * (mTranslationY + halfHeight));
+        outBounds.sort();
+    }
+
+    /**
+     * Adds the area that needs to be redrawn because this target changed since the last call,
+     * that is where it was drawn before and where it is drawn now, to outDirty.
+     *
+     * @return true if the target changed.
+     */
+    public boolean addDirtyBounds(RectF outDirty) {
+        if (mChangeCount == mLastDirtyChangeCount) {
+            return false;
+        }
+        getBounds(mTmpBounds);
+        if (mLastDirtyChangeCount != -1) {
+            outDirty.union(mLastDirtyBounds);
+        }
+        outDirty.union(mTmpBounds);
+        mLastDirtyBounds.set(mTmpBounds);
+        mLastDirtyChangeCount = mChangeCount;
+        return true;
+    }
+
     public void draw(Canvas canvas) {
         if (mDrawable == null || !mEnabled) {
             return;
@@ -228,7 +293,10 @@ public class TargetDrawable {
     }
 
     public void setEnabled(boolean enabled) {
-        mEnabled  = enabled;
+        if (mEnabled != enabled) {
+            mEnabled  = enabled;
+            mChangeCount++;
+        }
     }
 
     public int getResourceId() {
@@ -18,161 +18,195 @@ package com.android.incallui.widget.multiwaveview;
 
 import android.animation.Animator;
 import android.animation.Animator.AnimatorListener;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ObjectAnimator;
-import android.animation.PropertyValuesHolder;
 import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
+/**
+ * Tweens float properties of objects to new values.
+ *
+ * There is one {@link Tween}, and one animator, for each (target, property) pair, which is
+ * created the first time the pair is tweened and reused from then on. Properties are read and
+ * written through typed {@link FloatProperty} accessors, so once the tweens exist, starting one
+ * and running it doesn't allocate.
+ *
+ * Each view owns its Tweener; there is no state shared between views. Only used on the main
+ * thread.
+ */
 class Tweener {
     private static final String TAG = "Tweener";
     private static final boolean DEBUG = false;
 
-    ObjectAnimator animator;
-    private static HashMap<Object, Tweener> sTweens = new HashMap<Object, Tweener>();
+    /**
+     * A float property of objects of type T.
+     */
+    public static abstract class FloatProperty<T> {
+        private final String mName;
 
-    public Tweener(ObjectAnimator anim) {
-        animator = anim;
-    }
+        public FloatProperty(String name) {
+            mName = name;
+        }
 
-    private static void remove(Animator animator) {
-        Iterator<Entry<Object, Tweener>> iter = sTweens.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<Object, Tweener> entry = iter.next();
-            if (entry.getValue().animator == animator) {
-                if (DEBUG) Log.v(TAG, "Removing tweener " + sTweens.get(entry.getKey())
-                        + " sTweens.size() = " + sTweens.size());
-                iter.remove();
-                break; // an animator can only be attached to one object
-            }
+        public abstract float get(T object);
+
+        public abstract void set(T object, float value);
+
+        public String getName() {
+            return mName;
         }
     }
 
-    public static Tweener to(Object object, long duration, Object... vars) {
-        long delay = 0;
-        AnimatorUpdateListener updateListener = null;
-        AnimatorListener listener = null;
-        TimeInterpolator interpolator = null;
-
-        // Iterate through arguments and discover properties to animate
-        ArrayList<PropertyValuesHolder> props = new ArrayList<PropertyValuesHolder>(vars.length/2);
-        for (int i = 0; i < vars.length; i+=2) {
-            if (!(vars[i] instanceof String)) {
-                throw new IllegalArgumentException("Key must be a string: " + vars[i]);
-            }
-            String key = (String) vars[i];
-            Object value = vars[i+1];
-
-            if ("simultaneousTween".equals(key)) {
-                // TODO
-            } else if ("ease".equals(key)) {
-                interpolator = (TimeInterpolator) value; // TODO: multiple interpolators?
-            } else if ("onUpdate".equals(key) || "onUpdateListener".equals(key)) {
-                updateListener = (AnimatorUpdateListener) value;
-            } else if ("onComplete".equals(key) || "onCompleteListener".equals(key)) {
-                listener = (AnimatorListener) value;
-            } else if ("delay".equals(key)) {
-                delay = ((Number) value).longValue();
-            } else if ("syncWith".equals(key)) {
-                // TODO
-            } else if (value instanceof float[]) {
-                props.add(PropertyValuesHolder.ofFloat(key,
-                        ((float[])value)[0], ((float[])value)[1]));
-            } else if (value instanceof int[]) {
-                props.add(PropertyValuesHolder.ofInt(key,
-                        ((int[])value)[0], ((int[])value)[1]));
-            } else if (value instanceof Number) {
-                float floatValue = ((Number)value).floatValue();
-                props.add(PropertyValuesHolder.ofFloat(key, floatValue));
-            } else {
-                throw new IllegalArgumentException(
-                        "Bad argument for key \"" + key + "\" with value " + value.getClass());
-            }
+    /**
+     * Animates one property of one object from its value when the animation begins to a target
+     * value. The interpolated fraction of the animator is applied to the property directly, so
+     * no animated values are boxed.
+     */
+    public static class Tween implements AnimatorUpdateListener, AnimatorListener {
+        private final Object mTarget;
+        @SuppressWarnings("rawtypes")
+        private final FloatProperty mProperty;
+        private final ValueAnimator mAnimator;
+
+        private float mFromValue;
+        private float mToValue;
+        private boolean mFromValueSet;
+        private AnimatorUpdateListener mUpdateListener;
+        private AnimatorListener mListener;
+
+        <T> Tween(T target, FloatProperty<T> property) {
+            mTarget = target;
+            mProperty = property;
+            mAnimator = ValueAnimator.ofFloat(0.0f, 1.0f);
+            mAnimator.addUpdateListener(this);
+            mAnimator.addListener(this);
         }
 
-        // Re-use existing tween, if present
-        Tweener tween = sTweens.get(object);
-        ObjectAnimator anim = null;
-        if (tween == null) {
-            anim = ObjectAnimator.ofPropertyValuesHolder(object,
-                    props.toArray(new PropertyValuesHolder[props.size()]));
-            tween = new Tweener(anim);
-            sTweens.put(object, tween);
-            if (DEBUG) Log.v(TAG, "Added new Tweener " + tween);
-        } else {
-            anim = sTweens.get(object).animator;
-            replace(props, object); // Cancel all animators for given object
+        public void start() {
+            mFromValueSet = false;
+            mAnimator.start();
         }
 
-        if (interpolator != null) {
-            anim.setInterpolator(interpolator);
+        public void cancel() {
+            mAnimator.cancel();
         }
 
-        // Update animation with properties discovered in loop above
-        anim.setStartDelay(delay);
-        anim.setDuration(duration);
-        if (updateListener != null) {
-            anim.removeAllUpdateListeners(); // There should be only one
-            anim.addUpdateListener(updateListener);
+        public void end() {
+            mAnimator.end();
         }
-        if (listener != null) {
-            anim.removeAllListeners(); // There should be only one.
-            anim.addListener(listener);
+
+        public boolean isRunning() {
+            return mAnimator.isRunning();
         }
-        anim.addListener(mCleanupListener);
 
-        return tween;
-    }
+        public long getCurrentPlayTime() {
+            return mAnimator.getCurrentPlayTime();
+        }
 
-    Tweener from(Object object, long duration, Object... vars) {
-        // TODO:  for v of vars
-        //            toVars[v] = object[v]
-        //            object[v] = vars[v]
-        return Tweener.to(object, duration, vars);
-    }
+        @SuppressWarnings("unchecked")
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation) {
+            if (!mFromValueSet) {
+                // Like ObjectAnimator, start from the value the property has once the start
+                // delay is over.
+                mFromValue = mProperty.get(mTarget);
+                mFromValueSet = true;
+            }
+            final float fraction = animation.getAnimatedFraction();
+            mProperty.set(mTarget, mFromValue + (mToValue - mFromValue) * fraction);
+            if (mUpdateListener != null) {
+                mUpdateListener.onAnimationUpdate(animation);
+            }
+        }
 
-    // Listener to watch for completed animations and remove them.
-    private static AnimatorListener mCleanupListener = new AnimatorListenerAdapter() {
+        @Override
+        public void onAnimationStart(Animator animation) {
+            if (mListener != null) {
+                mListener.onAnimationStart(animation);
+            }
+        }
 
         @Override
         public void onAnimationEnd(Animator animation) {
-            remove(animation);
+            if (mListener != null) {
+                mListener.onAnimationEnd(animation);
+            }
         }
 
         @Override
         public void onAnimationCancel(Animator animation) {
-            remove(animation);
+            if (mListener != null) {
+                mListener.onAnimationCancel(animation);
+            }
         }
-    };
 
-    public static void reset() {
-        if (DEBUG) {
-            Log.v(TAG, "Reset()");
-            if (sTweens.size() > 0) {
-                Log.v(TAG, "Cleaning up " + sTweens.size() + " animations");
+        @Override
+        public void onAnimationRepeat(Animator animation) {
+            if (mListener != null) {
+                mListener.onAnimationRepeat(animation);
             }
         }
-        sTweens.clear();
+
+        @Override
+        public String toString() {
+            return "Tween{" + mTarget + "." + mProperty.getName() + " -> " + mToValue + "}";
+        }
     }
 
-    private static void replace(ArrayList<PropertyValuesHolder> props, Object... args) {
-        for (final Object killobject : args) {
-            Tweener tween = sTweens.get(killobject);
-            if (tween != null) {
-                tween.animator.cancel();
-                if (props != null) {
-                    tween.animator.setValues(
-                            props.toArray(new PropertyValuesHolder[props.size()]));
-                } else {
-                    sTweens.remove(tween);
-                }
+    private final ArrayList<Tween> mTweens = new ArrayList<Tween>();
+
+    /**
+     * Sets up the tween of a property to a new value, replacing the previous tween of that
+     * property, which is cancelled if it is running. The tween still needs to be started.
+     *
+     * @param updateListener Called on every frame, after the property is updated. Can be null.
+     * @param listener Notified of the lifecycle of this tween only. Can be null.
+     */
+    public <T> Tween to(T target, FloatProperty<T> property, long duration, long delay,
+            TimeInterpolator interpolator, float value, AnimatorUpdateListener updateListener,
+            AnimatorListener listener) {
+        final Tween tween = obtain(target, property);
+        // The previous listener hears about the cancellation, not the new one.
+        tween.mAnimator.cancel();
+        tween.mToValue = value;
+        tween.mUpdateListener = updateListener;
+        tween.mListener = listener;
+        tween.mAnimator.setDuration(duration);
+        tween.mAnimator.setStartDelay(delay);
+        if (interpolator != null) {
+            tween.mAnimator.setInterpolator(interpolator);
+        }
+        return tween;
+    }
+
+    /**
+     * Cancels and drops the tweens of an object which won't be animated anymore.
+     */
+    public void remove(Object target) {
+        for (int i = mTweens.size() - 1; i >= 0; i--) {
+            final Tween tween = mTweens.get(i);
+            if (tween.mTarget == target) {
+                tween.mAnimator.cancel();
+                mTweens.remove(i);
+                if (DEBUG) Log.v(TAG, "Removed " + tween + " mTweens.size() = " + mTweens.size());
             }
         }
     }
+
+    private <T> Tween obtain(T target, FloatProperty<T> property) {
+        // Linear search: a view has a few dozen tweens at most, and this doesn't allocate.
+        final int count = mTweens.size();
+        for (int i = 0; i < count; i++) {
+            final Tween tween = mTweens.get(i);
+            if (tween.mTarget == target && tween.mProperty == property) {
+                return tween;
+            }
+        }
+        final Tween tween = new Tween(target, property);
+        mTweens.add(tween);
+        if (DEBUG) Log.v(TAG, "Added " + tween + " mTweens.size() = " + mTweens.size());
+        return tween;
+    }
 }